@@ -14,6 +14,10 @@ public class GenerateAst {
         String outputDir = args[0];
 
         defineAst(outputDir, "Expr", Arrays.asList(
+            "static final int GLOBAL = -1;",
+            "// Scopes between a variable, this or super and its declaration, set by the Resolver",
+            "int depth = GLOBAL;"
+        ), Arrays.asList(
             "Assign   : Token name, Token operator, Expr value",
             "Binary   : Expr left, Token operator, Expr right",
             "Call     : Expr callee, Token paren, List<Expr> arguments",
@@ -30,27 +34,39 @@ public class GenerateAst {
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
+            "// Set by the parser when collecting --coverage, null otherwise",
+            "transient Coverage.Probe probe;"
+        ), Arrays.asList(
             "Block      : List<Stmt> statements",
             "Class      : Token name, Expr.Var superclass, List<Stmt.Function> methods, List<Stmt.Function> staticMethods",
             "Break      : ",
             "Expression : Expr expression",
             "Function   : Token name, List<Token> params, List<Stmt> body",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "Import     : Token keyword, String path",
             "Print      : Expr expression",
             "Return     : Token keyword, Expr value",
             "Var        : Token name, Expr initializer",
-            "While      : Expr condition, Stmt body"
+            "While      : Token keyword, Expr condition, Stmt body"
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    private static void defineAst(String outputDir, String baseName, List<String> baseFields, List<String> types) throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
         
         writer.printf("package jlox;\n\n");
+        writer.printf("import java.io.Serializable;\n");
         writer.printf("import java.util.List;\n\n");
-        writer.printf("abstract class %s {\n", baseName);
+        writer.printf("abstract class %s implements Serializable {\n", baseName);
         tabc++;
+        // Fixed, so recompiling doesn't invalidate heap images; HeapImage.VERSION tracks real changes
+        writer.printf("%sprivate static final long serialVersionUID = 1L;\n\n", tabs());
+
+        for (String line : baseFields) {
+            writer.printf("%s%s\n", tabs(), line);
+        }
+        if (!baseFields.isEmpty()) writer.printf("\n");
 
         defineVisitor(writer, baseName, types);
 
@@ -83,8 +99,10 @@ public class GenerateAst {
     private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
         writer.printf("%sstatic class %s extends %s {\n", tabs(),  className, baseName);
         tabc++;
+        writer.printf("%sprivate static final long serialVersionUID = 1L;\n", tabs());
         
         String[] fields = fieldList.length() == 0 ? new String[0] : fieldList.split(", ");
+        if (fields.length > 0) writer.printf("\n");
         for (String field : fields) {
             writer.printf("%sfinal %s;\n", tabs(), field);
         }
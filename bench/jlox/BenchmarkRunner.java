@@ -0,0 +1,369 @@
+package jlox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Runs the Lox programs in bench/lox end to end and compares them against
+ * a stored baseline.
+ *
+ * Each script can run on three engines:
+ *
+ * - fresh: a new JVM per run, started the way jlox is normally used, so
+ *   startup and warmup are included. CPU is the whole process; allocation
+ *   is the main thread's.
+ * - warm: all runs in this JVM after some warmup runs, each with a fresh
+ *   interpreter and the full scan, parse, resolve and interpret pipeline.
+ * - clox: the C implementation, as a reference point. Only wall time is
+ *   measured. Scripts it can't run yet are reported, not treated as errors.
+ *
+ * The median of each metric is compared against the baseline, and the run
+ * fails if any of them is slower or allocates more than the thresholds
+ * allow. Script output is discarded; a script that fails is reported.
+ *
+ * Usage: java -cp <classes> jlox.BenchmarkRunner [options] [script...]
+ *   --dir=<dir>             benchmark programs (default bench/lox)
+ *   --runs=<n>              measured runs per script and engine (default 5)
+ *   --warmup=<n>            warmup runs for the warm engine (default 3)
+ *   --engines=<e,...>       fresh, warm, clox (default fresh,warm)
+ *   --clox=<binary>         clox executable, e.g. built with gcc -O2 -o clox/clox clox/*.c
+ *   --jvm-opt=<option>      JVM option for fresh runs; may be repeated
+ *   --baseline=<file>       compare against this baseline
+ *   --save=<file>           save these results as a baseline
+ *   --threshold=<pct>       allowed slowdown in wall and CPU time (default 10)
+ *   --alloc-threshold=<pct> allowed growth in allocation (default 5)
+ */
+public class BenchmarkRunner {
+    private static final String METRICS = "#jlox-bench";
+
+    private static Path directory = Paths.get("bench", "lox");
+    private static int runs = 5;
+    private static int warmup = 3;
+    private static List<String> engines = Arrays.asList("fresh", "warm");
+    private static String clox = null;
+    private static final List<String> jvmOptions = new ArrayList<>();
+    private static double threshold = 10;
+    private static double allocThreshold = 5;
+
+    // Medians of one script on one engine; cpu and alloc are -1 when not measured
+    private static class Measurement {
+        final String script;
+        final String engine;
+        double wall = -1;
+        double cpu = -1;
+        double alloc = -1;
+        String failure = null;
+
+        Measurement(String script, String engine) {
+            this.script = script;
+            this.engine = engine;
+        }
+
+        String key(String metric) {
+            return script + "." + engine + "." + metric;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            child(args[1]);
+            return;
+        }
+
+        Path baseline = null;
+        Path save = null;
+        List<String> names = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.startsWith("--dir=")) {
+                directory = Paths.get(arg.substring("--dir=".length()));
+            } else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(arg.substring("--runs=".length()));
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--engines=")) {
+                engines = Arrays.asList(arg.substring("--engines=".length()).split(","));
+            } else if (arg.startsWith("--clox=")) {
+                clox = arg.substring("--clox=".length());
+            } else if (arg.startsWith("--jvm-opt=")) {
+                jvmOptions.add(arg.substring("--jvm-opt=".length()));
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = Paths.get(arg.substring("--baseline=".length()));
+            } else if (arg.startsWith("--save=")) {
+                save = Paths.get(arg.substring("--save=".length()));
+            } else if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            } else if (arg.startsWith("--alloc-threshold=")) {
+                allocThreshold = Double.parseDouble(arg.substring("--alloc-threshold=".length()));
+            } else if (arg.startsWith("--")) {
+                System.err.println("Unknown option: " + arg);
+                System.exit(64);
+            } else {
+                names.add(arg);
+            }
+        }
+
+        for (String engine : engines) {
+            if (!engine.equals("fresh") && !engine.equals("warm") && !engine.equals("clox")) {
+                System.err.println("Unknown engine '" + engine + "'.");
+                System.exit(64);
+            }
+        }
+        if (engines.contains("clox") && clox == null) {
+            System.err.println("The clox engine needs --clox=<binary>.");
+            System.exit(64);
+        }
+
+        List<Path> scripts = scripts(names);
+        List<Measurement> results = new ArrayList<>();
+        for (Path script : scripts) {
+            for (String engine : engines) {
+                System.err.printf("# %s on %s%n", script.getFileName(), engine);
+                results.add(measure(script, engine));
+            }
+        }
+
+        Properties previous = null;
+        if (baseline != null) {
+            previous = new Properties();
+            try (Reader in = Files.newBufferedReader(baseline)) {
+                previous.load(in);
+            }
+        }
+
+        boolean regressed = report(results, previous);
+
+        if (save != null) {
+            Properties properties = new Properties();
+            for (Measurement result : results) {
+                if (result.failure != null) continue;
+                properties.setProperty(result.key("wall"), format(result.wall));
+                if (result.cpu >= 0) properties.setProperty(result.key("cpu"), format(result.cpu));
+                if (result.alloc >= 0) properties.setProperty(result.key("alloc"), format(result.alloc));
+            }
+            try (Writer out = Files.newBufferedWriter(save)) {
+                properties.store(out, "jlox benchmark baseline: medians in ms and bytes");
+            }
+            System.out.println("Baseline saved to " + save);
+        }
+
+        if (regressed) System.exit(1);
+    }
+
+    private static List<Path> scripts(List<String> names) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        if (!names.isEmpty()) {
+            for (String name : names) {
+                scripts.add(directory.resolve(name.endsWith(".lox") ? name : name + ".lox"));
+            }
+            return scripts;
+        }
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*.lox")) {
+            for (Path entry : entries) scripts.add(entry);
+        }
+        Collections.sort(scripts);
+        return scripts;
+    }
+
+    private static Measurement measure(Path script, String engine) throws Exception {
+        String name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+        Measurement result = new Measurement(name, engine);
+        double[] wall = new double[runs];
+        double[] cpu = new double[runs];
+        double[] alloc = new double[runs];
+
+        if (engine.equals("warm")) {
+            String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            for (int i = -warmup; i < runs; i++) {
+                double[] metrics = runWarm(source);
+                if (metrics == null) {
+                    result.failure = "failed";
+                    return result;
+                }
+                if (i < 0) continue;
+                wall[i] = metrics[0];
+                cpu[i] = metrics[1];
+                alloc[i] = metrics[2];
+            }
+            result.cpu = median(cpu);
+            result.alloc = median(alloc);
+        } else {
+            List<String> command = new ArrayList<>();
+            if (engine.equals("clox")) {
+                command.add(clox);
+            } else {
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(jvmOptions);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(BenchmarkRunner.class.getName());
+                command.add("--child");
+            }
+            command.add(script.toString());
+
+            for (int i = 0; i < runs; i++) {
+                double[] metrics = runProcess(command, result);
+                if (metrics == null) return result;
+                wall[i] = metrics[0];
+                cpu[i] = metrics[1];
+                alloc[i] = metrics[2];
+            }
+            if (engine.equals("fresh")) {
+                result.cpu = median(cpu);
+                result.alloc = median(alloc);
+            }
+        }
+
+        result.wall = median(wall);
+        return result;
+    }
+
+    // Wall ms, CPU ms and allocated bytes of one in-process run, or null if it failed
+    private static double[] runWarm(String source) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Lox.hadError = false;
+        Lox.hadRuntimeError = false;
+
+        long allocStart = threads.getThreadAllocatedBytes(thread);
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        try {
+            Interpreter interpreter = new Interpreter();
+            List<Stmt> statements = new Parser(new Scanner(source).scanBuffer()).parse();
+            if (Lox.hadError) return null;
+            new Resolver().resolve(statements);
+            if (Lox.hadError) return null;
+            interpreter.interpret(statements);
+            if (Lox.hadRuntimeError) return null;
+        } finally {
+            System.setOut(out);
+        }
+
+        return new double[] {
+            (System.nanoTime() - start) / 1e6,
+            (threads.getCurrentThreadCpuTime() - cpuStart) / 1e6,
+            threads.getThreadAllocatedBytes(thread) - allocStart
+        };
+    }
+
+    // Wall ms, CPU ms and allocated bytes of one child process, or null if it failed
+    private static double[] runProcess(List<String> command, Measurement result) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        List<String> errors = new ArrayList<>();
+        double[] metrics = {0, -1, -1};
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.startsWith(METRICS)) {
+                    String[] fields = line.split(" ");
+                    metrics[1] = Double.parseDouble(fields[1]);
+                    metrics[2] = Double.parseDouble(fields[2]);
+                } else {
+                    errors.add(line);
+                }
+            }
+        }
+        int status = process.waitFor();
+        metrics[0] = (System.nanoTime() - start) / 1e6;
+
+        if (status != 0) {
+            result.failure = (result.engine.equals("clox") ? "unsupported" : "failed") + " (exit " + status + ")";
+            for (String line : errors) System.err.println("  " + line);
+            return null;
+        }
+        return metrics;
+    }
+
+    // Runs one script in this fresh JVM through the normal entry point and reports what it used
+    private static void child(String script) throws IOException {
+        Lox.main(new String[] { "--no-cache", script });
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean();
+        System.err.printf(Locale.ROOT, "%s %.3f %d%n", METRICS,
+            os.getProcessCpuTime() / 1e6, threads.getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+
+    private static boolean report(List<Measurement> results, Properties baseline) {
+        boolean regressed = false;
+
+        System.out.printf("%n%-16s %-6s %10s %10s %12s  %s%n", "Script", "Engine", "Wall ms", "CPU ms", "Alloc MB",
+            baseline == null ? "" : "vs baseline");
+        for (Measurement result : results) {
+            if (result.failure != null) {
+                System.out.printf("%-16s %-6s  %s%n", result.script, result.engine, result.failure);
+                continue;
+            }
+
+            StringBuilder changes = new StringBuilder();
+            if (baseline != null) {
+                regressed |= compare(changes, "wall", result.wall, baseline.getProperty(result.key("wall")), threshold);
+                regressed |= compare(changes, "cpu", result.cpu, baseline.getProperty(result.key("cpu")), threshold);
+                regressed |= compare(changes, "alloc", result.alloc, baseline.getProperty(result.key("alloc")), allocThreshold);
+            }
+
+            System.out.printf(Locale.ROOT, "%-16s %-6s %10.1f %10s %12s  %s%n", result.script, result.engine, result.wall,
+                result.cpu < 0 ? "-" : String.format(Locale.ROOT, "%.1f", result.cpu),
+                result.alloc < 0 ? "-" : String.format(Locale.ROOT, "%.1f", result.alloc / (1 << 20)),
+                changes);
+        }
+
+        if (regressed) {
+            System.out.printf(Locale.ROOT, "%nRegressions beyond %.0f%% time / %.0f%% allocation.%n",
+                threshold, allocThreshold);
+        }
+        return regressed;
+    }
+
+    // Appends the change against the baseline and returns true if it is a regression
+    private static boolean compare(StringBuilder changes, String metric, double current, String previous,
+                                   double allowed) {
+        if (current < 0 || previous == null) return false;
+
+        double before = Double.parseDouble(previous);
+        if (before <= 0) return false;
+        double change = (current - before) / before * 100;
+        boolean regression = change > allowed;
+        changes.append(String.format(Locale.ROOT, "%s %+.1f%%%s  ", metric, change, regression ? " REGRESSION" : ""));
+        return regression;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,63 @@
+package jlox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * Checks that an engine's memory stays flat across repeated eval calls.
+ *
+ * Each eval compiles a fresh program that declares locals, a closure and a
+ * class, and replaces the globals the previous one defined, so nothing it
+ * compiled should outlive it. The heap retained after a first round of
+ * evals is compared with the heap retained after all of them; the check
+ * fails, exiting with 1, if it grew by more than the allowance.
+ *
+ * Usage: java -cp <classes> jlox.EvalMemoryCheck [evals] [allowance KB]
+ */
+public class EvalMemoryCheck {
+    private static final String SCRIPT =
+        "fun make(n) { var total = n; fun add(x) { total = total + x; return total; } return add; }\n" +
+        "class Point { init(x) { this.x = x; } moved(d) { var p = Point(this.x + d); return p; } }\n" +
+        "var add = make(%d);\n" +
+        "{ var a = add(1); var b = Point(a).moved(2); b.x; }\n";
+
+    public static void main(String[] args) throws ScriptException {
+        int evals = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long allowance = (args.length > 1 ? Long.parseLong(args[1]) : 2048) * 1024;
+        int warmup = evals / 10;
+
+        ScriptEngine engine = new LoxScriptEngineFactory().getScriptEngine();
+        for (int i = 0; i < warmup; i++) {
+            engine.eval(String.format(SCRIPT, i));
+        }
+        long before = retained();
+
+        for (int i = warmup; i < evals; i++) {
+            engine.eval(String.format(SCRIPT, i));
+        }
+        long after = retained();
+
+        long growth = after - before;
+        System.out.printf("Retained after %d evals: %d KB, after %d: %d KB, growth %d KB%n",
+            warmup, before / 1024, evals, after / 1024, growth / 1024);
+        if (growth > allowance) {
+            System.out.printf("Grew by more than %d KB%n", allowance / 1024);
+            System.exit(1);
+        }
+    }
+
+    // Heap in use once collections stop freeing anything
+    private static long retained() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used) return now;
+            used = now;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,338 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each stage of the pipeline on its own: Scanner.scanTokens,
+ * Parser.parse, Resolver.resolve and Interpreter.interpret.
+ *
+ * Every stage is measured against the same set of program shapes. A stage
+ * only runs its own step; whatever the earlier stages produce is built once
+ * beforehand, and each interpret op gets a fresh interpreter, resolved
+ * outside the timed region. Like JMH in average-time mode, each iteration
+ * repeats the op for a fixed time and scores the mean time per op. The
+ * error is the 99.9% confidence interval over the measured iterations.
+ * Unlike JMH there is no forking: everything shares one JVM, so pass a
+ * single --stage when one stage's profile shouldn't affect another's.
+ *
+ * --json writes the results in JMH's JSON result format, so the usual JMH
+ * tooling can read them and compare runs over time.
+ *
+ * Usage: java -cp <classes> jlox.PipelineBenchmark [options]
+ *   --stage=<s,...>     scan, parse, resolve, interpret (default all)
+ *   --shape=<s,...>     loops, dispatch, strings, recursion, instantiation (default all)
+ *   --warmup=<n>        warmup iterations (default 5)
+ *   --iterations=<n>    measured iterations (default 10)
+ *   --time=<ms>         length of each iteration (default 500)
+ *   --json=<file>       also write the results as JSON
+ *   --budget            interpret under an ExecutionBudget that never runs
+ *                       out, to measure what step counting costs
+ */
+public class PipelineBenchmark {
+    private static final Map<String, String> SHAPES = new LinkedHashMap<>();
+
+    static {
+        SHAPES.put("loops",
+            "fun loops(n) {\n" +
+            "    var sum = 0;\n" +
+            "    for (var i = 0; i < n; i = i + 1) {\n" +
+            "        var j = 0;\n" +
+            "        while (j < 10) { sum = sum + i * j - j / 2; j += 1; }\n" +
+            "        if (sum > 1000000) sum = sum - 1000000; else sum = sum + 1;\n" +
+            "    }\n" +
+            "    return sum;\n" +
+            "}\n" +
+            "var result = loops(1000);\n");
+
+        SHAPES.put("dispatch",
+            "class Shape { area() { return 0; } scaled(k) { return this.area() * k; } }\n" +
+            "class Square < Shape { init(s) { this.s = s; } area() { return this.s * this.s; } }\n" +
+            "class Rect < Shape { init(w, h) { this.w = w; this.h = h; } area() { return this.w * this.h; } }\n" +
+            "class Circle < Shape { init(r) { this.r = r; } area() { return 3 * this.r * this.r; } }\n" +
+            "class Unit < Square { init() { super.init(1); } scaled(k) { return super.scaled(k) + 1; } }\n" +
+            "var a = Square(2); var b = Rect(2, 3); var c = Circle(1); var d = Unit();\n" +
+            "var total = 0;\n" +
+            "for (var i = 0; i < 2000; i = i + 1) {\n" +
+            "    total = total + a.area() + b.scaled(2) + c.area() + d.scaled(i);\n" +
+            "}\n");
+
+        SHAPES.put("strings",
+            "fun pad(s, n) { while (n > 0) { s = s + \" \"; n = n - 1; } return s; }\n" +
+            "var out = \"\";\n" +
+            "var words = 0;\n" +
+            "for (var i = 0; i < 500; i = i + 1) {\n" +
+            "    var word = \"w\" + i;\n" +
+            "    if (word == \"w250\") word = word + \"!\";\n" +
+            "    out = out + pad(word, 2);\n" +
+            "    if (out == \"\") print out;\n" +
+            "    words += 1;\n" +
+            "}\n");
+
+        SHAPES.put("recursion",
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n" +
+            "fun depth(n) { if (n == 0) return 0; return 1 + depth(n - 1); }\n" +
+            "fun ackermann(m, n) {\n" +
+            "    if (m == 0) return n + 1;\n" +
+            "    if (n == 0) return ackermann(m - 1, 1);\n" +
+            "    return ackermann(m - 1, ackermann(m, n - 1));\n" +
+            "}\n" +
+            "var result = fib(15) + depth(400) + ackermann(2, 3);\n");
+
+        SHAPES.put("instantiation",
+            "class Point { init(x, y) { this.x = x; this.y = y; } }\n" +
+            "class Node { init(value, next) { this.value = value; this.next = next; } }\n" +
+            "class Empty {}\n" +
+            "var list = nil;\n" +
+            "for (var i = 0; i < 2000; i = i + 1) {\n" +
+            "    var p = Point(i, i + 1);\n" +
+            "    Empty();\n" +
+            "    list = Node(p, list);\n" +
+            "    if (i - (i / 100) * 100 == 0) list = nil;\n" +
+            "}\n");
+    }
+
+    private static final List<String> STAGES = Arrays.asList("scan", "parse", "resolve", "interpret");
+
+    private static int warmup = 5;
+    private static int iterations = 10;
+    private static long time = 500;
+    private static boolean budget = false;
+
+    // Results are stored here so the JIT can't discard the work
+    static volatile Object blackhole;
+
+    // One timed operation; its inputs are prepared when the op is created
+    private interface Op {
+        Object run();
+    }
+
+    private static class Result {
+        final String stage;
+        final String shape;
+        final double[] scores;
+
+        Result(String stage, String shape, double[] scores) {
+            this.stage = stage;
+            this.shape = shape;
+            this.scores = scores;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double score : scores) sum += score;
+            return sum / scores.length;
+        }
+
+        double error() {
+            if (scores.length < 2) return Double.NaN;
+            double mean = mean();
+            double squares = 0;
+            for (double score : scores) squares += (score - mean) * (score - mean);
+            double deviation = Math.sqrt(squares / (scores.length - 1));
+            return studentT(scores.length - 1) * deviation / Math.sqrt(scores.length);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> stages = STAGES;
+        List<String> shapes = new ArrayList<>(SHAPES.keySet());
+        Path json = null;
+
+        for (String arg : args) {
+            if (arg.startsWith("--stage=")) {
+                stages = select(arg.substring("--stage=".length()), STAGES);
+            } else if (arg.startsWith("--shape=")) {
+                shapes = select(arg.substring("--shape=".length()), SHAPES.keySet());
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--time=")) {
+                time = Long.parseLong(arg.substring("--time=".length()));
+            } else if (arg.startsWith("--json=")) {
+                json = Paths.get(arg.substring("--json=".length()));
+            } else if (arg.equals("--budget")) {
+                budget = true;
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(64);
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (String stage : stages) {
+            for (String shape : shapes) {
+                results.add(measure(stage, shape, op(stage, SHAPES.get(shape))));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-10s %-14s %5s %12s %10s  %s%n", "Stage", "(shape)", "Cnt", "Score", "Error", "Units");
+        for (Result result : results) {
+            System.out.printf(Locale.ROOT, "%-10s %-14s %5d %12.3f %10.3f  us/op%n",
+                result.stage, result.shape, result.scores.length, result.mean(), result.error());
+        }
+
+        if (json != null) {
+            Files.write(json, toJson(results).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Results written to " + json);
+        }
+    }
+
+    private static List<String> select(String list, Collection<String> known) {
+        List<String> selected = Arrays.asList(list.split(","));
+        for (String name : selected) {
+            if (!known.contains(name)) {
+                System.err.println("Unknown name '" + name + "', expected one of " + known);
+                System.exit(64);
+            }
+        }
+        return selected;
+    }
+
+    private static Op op(String stage, String source) {
+        switch (stage) {
+            case "scan":
+                return () -> new Scanner(source).scanTokens();
+            case "parse": {
+                TokenBuffer tokens = new Scanner(source).scanBuffer();
+                return () -> new Parser(tokens).parse();
+            }
+            case "resolve": {
+                List<Stmt> statements = parse(source);
+                return () -> {
+                    Resolver resolver = new Resolver();
+                    resolver.resolve(statements);
+                    return resolver;
+                };
+            }
+            case "interpret": {
+                List<Stmt> statements = parse(source);
+                return () -> {
+                    Interpreter interpreter = new Interpreter();
+                    new Resolver().resolve(statements);
+                    // A deadline too, so the periodic clock reads are included
+                    if (budget) interpreter.budget = new ExecutionBudget(0, TimeUnit.HOURS.toMillis(1));
+                    long start = System.nanoTime();
+                    interpreter.interpret(statements);
+                    return System.nanoTime() - start;
+                };
+            }
+            default:
+                throw new IllegalArgumentException(stage);
+        }
+    }
+
+    private static List<Stmt> parse(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanBuffer()).parse();
+        if (Lox.hadError) throw new IllegalStateException("Benchmark program doesn't compile.");
+        return statements;
+    }
+
+    private static Result measure(String stage, String shape, Op op) {
+        System.out.printf("# %s:%s%n", stage, shape);
+
+        // Scripts may print; keep that out of the measurement
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        double[] scores = new double[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            System.setOut(discard);
+            long ops = 0;
+            long measured = 0;
+            long end = System.nanoTime() + time * 1_000_000L;
+            try {
+                while (System.nanoTime() < end) {
+                    long start = System.nanoTime();
+                    Object result = op.run();
+                    // Interpret ops time themselves, so setting up the interpreter isn't counted
+                    measured += result instanceof Long ? (Long)result : System.nanoTime() - start;
+                    blackhole = result;
+                    ops++;
+                }
+            } finally {
+                System.setOut(out);
+            }
+            if (Lox.hadRuntimeError) throw new IllegalStateException("Benchmark program failed.");
+
+            double score = measured / 1000.0 / ops;
+            if (i < 0) {
+                System.out.printf(Locale.ROOT, "Warmup    %2d: %.3f us/op%n", i + warmup + 1, score);
+            } else {
+                System.out.printf(Locale.ROOT, "Iteration %2d: %.3f us/op%n", i + 1, score);
+                scores[i] = score;
+            }
+        }
+
+        return new Result(stage, shape, scores);
+    }
+
+    // Two-sided 99.9% quantile of Student's t distribution, as JMH reports
+    private static double studentT(int degrees) {
+        final double[] table = {
+            636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+            4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+            3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+        };
+        return degrees <= table.length ? table[degrees - 1] : 3.291;
+    }
+
+    private static String toJson(List<Result> results) {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int r = 0; r < results.size(); r++) {
+            Result result = results.get(r);
+            json.append("    {\n");
+            json.append("        \"jmhVersion\" : \"jlox-harness\",\n");
+            json.append("        \"benchmark\" : \"jlox.PipelineBenchmark.").append(result.stage).append("\",\n");
+            json.append("        \"mode\" : \"avgt\",\n");
+            json.append("        \"threads\" : 1,\n");
+            json.append("        \"forks\" : 1,\n");
+            json.append("        \"jvm\" : \"").append(escape(System.getProperty("java.home"))).append("\",\n");
+            json.append("        \"jdkVersion\" : \"").append(System.getProperty("java.version")).append("\",\n");
+            json.append("        \"warmupIterations\" : ").append(warmup).append(",\n");
+            json.append("        \"warmupTime\" : \"").append(time).append(" ms\",\n");
+            json.append("        \"measurementIterations\" : ").append(iterations).append(",\n");
+            json.append("        \"measurementTime\" : \"").append(time).append(" ms\",\n");
+            json.append("        \"params\" : {\n");
+            json.append("            \"shape\" : \"").append(result.shape).append("\"\n");
+            json.append("        },\n");
+            json.append("        \"primaryMetric\" : {\n");
+            json.append("            \"score\" : ").append(number(result.mean())).append(",\n");
+            json.append("            \"scoreError\" : ").append(number(result.error())).append(",\n");
+            json.append("            \"scoreUnit\" : \"us/op\",\n");
+            json.append("            \"rawData\" : [\n                [\n");
+            for (int i = 0; i < result.scores.length; i++) {
+                json.append("                    ").append(number(result.scores[i]));
+                json.append(i + 1 < result.scores.length ? ",\n" : "\n");
+            }
+            json.append("                ]\n            ]\n");
+            json.append("        },\n");
+            json.append("        \"secondaryMetrics\" : {\n        }\n");
+            json.append(r + 1 < results.size() ? "    },\n" : "    }\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
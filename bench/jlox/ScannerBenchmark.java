@@ -0,0 +1,117 @@
+package jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Microbenchmark for keyword recognition in the Scanner.
+ *
+ * Compares the allocation-free trie in Scanner.identifierType against the
+ * substring + HashMap lookup it replaced, over every identifier of a
+ * keyword-heavy program, and reports whole-file scan throughput.
+ *
+ * Usage: java -cp <classes> jlox.ScannerBenchmark [copies]
+ */
+public class ScannerBenchmark {
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    private static final Map<String, TokenType> keywords = new HashMap<>();
+
+    static {
+        keywords.put("and",    TokenType.AND);
+        keywords.put("break",  TokenType.BREAK);
+        keywords.put("class",  TokenType.CLASS);
+        keywords.put("else",   TokenType.ELSE);
+        keywords.put("false",  TokenType.FALSE);
+        keywords.put("for",    TokenType.FOR);
+        keywords.put("fun",    TokenType.FUN);
+        keywords.put("if",     TokenType.IF);
+        keywords.put("import", TokenType.IMPORT);
+        keywords.put("nil",    TokenType.NIL);
+        keywords.put("or",     TokenType.OR);
+        keywords.put("print",  TokenType.PRINT);
+        keywords.put("return", TokenType.RETURN);
+        keywords.put("static", TokenType.STATIC);
+        keywords.put("super",  TokenType.SUPER);
+        keywords.put("this",   TokenType.THIS);
+        keywords.put("true",   TokenType.TRUE);
+        keywords.put("var",    TokenType.VAR);
+        keywords.put("while",  TokenType.WHILE);
+    }
+
+    private static final String SNIPPET =
+        "class Shape < Base {\n" +
+        "    init(width, height) { this.width = width; this.height = height; }\n" +
+        "    static unit() { return Shape(1, 1); }\n" +
+        "    area() { if (this.width and this.height) return this.width * this.height; else return nil; }\n" +
+        "}\n" +
+        "fun search(items, target) {\n" +
+        "    var found = false;\n" +
+        "    for (var i = 0; i < items; i = i + 1) {\n" +
+        "        while (true) { if (i == target or found) break; found = !found; }\n" +
+        "    }\n" +
+        "    return found;\n" +
+        "}\n" +
+        "print super_value and this_value or fun_value;\n";
+
+    public static void main(String[] args) {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String source = SNIPPET.repeat(copies);
+
+        // Collect identifier spans once so both strategies classify the same input.
+        TokenBuffer tokens = new Scanner(source).scanBuffer();
+        int[] starts = new int[tokens.size()];
+        int[] lengths = new int[tokens.size()];
+        int count = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            TokenType type = tokens.type(i);
+            if (type != TokenType.IDENTIFIER && !keywords.containsValue(type)) continue;
+            starts[count] = tokens.start(i);
+            lengths[count] = tokens.length(i);
+            count++;
+        }
+
+        final int identifiers = count;
+        System.out.printf("%d bytes of source, %d tokens, %d identifiers and keywords%n",
+            source.length(), tokens.size(), identifiers);
+
+        report("keywords: trie", identifiers, () -> {
+            int sum = 0;
+            for (int i = 0; i < identifiers; i++) {
+                sum += Scanner.identifierType(source, starts[i], lengths[i]).ordinal();
+            }
+            return sum;
+        });
+
+        report("keywords: substring + HashMap", identifiers, () -> {
+            int sum = 0;
+            for (int i = 0; i < identifiers; i++) {
+                TokenType type = keywords.get(source.substring(starts[i], starts[i] + lengths[i]));
+                sum += (type == null ? TokenType.IDENTIFIER : type).ordinal();
+            }
+            return sum;
+        });
+
+        report("scanBuffer", tokens.size(), () -> new Scanner(source).scanBuffer().size());
+    }
+
+    private interface Workload {
+        int run();
+    }
+
+    private static void report(String name, int operations, Workload workload) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) sink += workload.run();
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            sink += workload.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.printf("%-32s %8.2f ns/op  (best of %d, sink %d)%n",
+            name, (double)best / operations, ITERATIONS, sink);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Thin client for the jlox script server (jlox --serve).
+ *
+ *   jloxc [-s <socket> | -p <port>] <script>   run a script file; '-' reads the source from stdin
+ *   jloxc [-s <socket> | -p <port>] -e <source>
+ *
+ * Output and the exit status are the server's, as if the script had been
+ * run with jlox. The default socket is $XDG_CACHE_HOME/jlox/jlox.sock, or
+ * ~/.cache/jlox/jlox.sock. The protocol is described in ScriptServer.java.
+ *
+ * Build with: cc -O2 -o bin/jloxc bin/jloxc.c
+ */
+#include <arpa/inet.h>
+#include <limits.h>
+#include <netinet/in.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <unistd.h>
+
+#define MAGIC 0x4a4c5831
+
+static void usage(void) {
+    fprintf(stderr, "Usage: jloxc [-s <socket> | -p <port>] (<script> | - | -e <source>)\n");
+    exit(64);
+}
+
+static void writeAll(int fd, const void* data, size_t length) {
+    const char* bytes = data;
+    while (length > 0) {
+        ssize_t written = write(fd, bytes, length);
+        if (written <= 0) {
+            perror("jloxc");
+            exit(74);
+        }
+        bytes += written;
+        length -= (size_t)written;
+    }
+}
+
+// Returns 0 at end of stream before anything was read
+static int readAll(int fd, void* data, size_t length) {
+    char* bytes = data;
+    size_t total = 0;
+    while (total < length) {
+        ssize_t n = read(fd, bytes + total, length - total);
+        if (n <= 0) {
+            if (total == 0) return 0;
+            fprintf(stderr, "jloxc: connection closed mid-frame\n");
+            exit(74);
+        }
+        total += (size_t)n;
+    }
+    return 1;
+}
+
+static char* readStream(FILE* file, size_t* length) {
+    size_t capacity = 4096;
+    char* buffer = malloc(capacity);
+    *length = 0;
+    size_t n;
+    while ((n = fread(buffer + *length, 1, capacity - *length, file)) > 0) {
+        *length += n;
+        if (*length == capacity) {
+            capacity *= 2;
+            buffer = realloc(buffer, capacity);
+        }
+    }
+    return buffer;
+}
+
+static int connectUnix(const char* path) {
+    struct sockaddr_un address;
+    memset(&address, 0, sizeof(address));
+    address.sun_family = AF_UNIX;
+    if (strlen(path) >= sizeof(address.sun_path)) {
+        fprintf(stderr, "jloxc: socket path too long: %s\n", path);
+        exit(64);
+    }
+    strcpy(address.sun_path, path);
+
+    int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+    if (fd < 0 || connect(fd, (struct sockaddr*)&address, sizeof(address)) < 0) {
+        fprintf(stderr, "jloxc: no server at %s (start one with 'jlox --serve')\n", path);
+        exit(69);
+    }
+    return fd;
+}
+
+static int connectPort(int port) {
+    struct sockaddr_in address;
+    memset(&address, 0, sizeof(address));
+    address.sin_family = AF_INET;
+    address.sin_port = htons((uint16_t)port);
+    address.sin_addr.s_addr = htonl(INADDR_LOOPBACK);
+
+    int fd = socket(AF_INET, SOCK_STREAM, 0);
+    if (fd < 0 || connect(fd, (struct sockaddr*)&address, sizeof(address)) < 0) {
+        fprintf(stderr, "jloxc: no server on port %d (start one with 'jlox --serve=%d')\n", port, port);
+        exit(69);
+    }
+    return fd;
+}
+
+int main(int argc, const char* argv[]) {
+    const char* socketPath = NULL;
+    int port = 0;
+    char kind = 'F';
+    const char* argument = NULL;
+
+    for (int i = 1; i < argc; i++) {
+        if (strcmp(argv[i], "-s") == 0 && i + 1 < argc) {
+            socketPath = argv[++i];
+        } else if (strcmp(argv[i], "-p") == 0 && i + 1 < argc) {
+            port = atoi(argv[++i]);
+        } else if (strcmp(argv[i], "-e") == 0 && i + 1 < argc && argument == NULL) {
+            kind = 'S';
+            argument = argv[++i];
+        } else if (argument == NULL) {
+            argument = argv[i];
+        } else {
+            usage();
+        }
+    }
+    if (argument == NULL) usage();
+
+    char* payload;
+    size_t length;
+    char resolved[PATH_MAX];
+    if (kind == 'S') {
+        payload = (char*)argument;
+        length = strlen(argument);
+    } else if (strcmp(argument, "-") == 0) {
+        kind = 'S';
+        payload = readStream(stdin, &length);
+    } else {
+        // The server has its own working directory
+        if (realpath(argument, resolved) == NULL) {
+            fprintf(stderr, "Could not read script '%s'.\n", argument);
+            return 66;
+        }
+        payload = resolved;
+        length = strlen(resolved);
+    }
+
+    char defaultSocket[PATH_MAX];
+    int fd;
+    if (port > 0) {
+        fd = connectPort(port);
+    } else {
+        if (socketPath == NULL) {
+            const char* cache = getenv("XDG_CACHE_HOME");
+            if (cache != NULL && cache[0] != '\0') {
+                snprintf(defaultSocket, sizeof(defaultSocket), "%s/jlox/jlox.sock", cache);
+            } else {
+                const char* home = getenv("HOME");
+                snprintf(defaultSocket, sizeof(defaultSocket), "%s/.cache/jlox/jlox.sock", home ? home : ".");
+            }
+            socketPath = defaultSocket;
+        }
+        fd = connectUnix(socketPath);
+    }
+
+    uint32_t header[2];
+    header[0] = htonl(MAGIC);
+    writeAll(fd, header, 4);
+    writeAll(fd, &kind, 1);
+    header[1] = htonl((uint32_t)length);
+    writeAll(fd, &header[1], 4);
+    writeAll(fd, payload, length);
+
+    char* buffer = NULL;
+    size_t capacity = 0;
+    for (;;) {
+        unsigned char stream;
+        uint32_t size;
+        if (!readAll(fd, &stream, 1) || !readAll(fd, &size, 4)) {
+            fprintf(stderr, "jloxc: server closed the connection\n");
+            return 70;
+        }
+        size = ntohl(size);
+        if (stream == 0) return (int)size;
+
+        if (size > capacity) {
+            capacity = size;
+            buffer = realloc(buffer, capacity);
+        }
+        if (size > 0 && !readAll(fd, buffer, size)) {
+            fprintf(stderr, "jloxc: server closed the connection\n");
+            return 70;
+        }
+        writeAll(stream == 1 ? STDOUT_FILENO : STDERR_FILENO, buffer, size);
+    }
+}
@@ -0,0 +1,22 @@
+package jlox;
+
+/**
+ * Thrown by Program.compile when the source has errors. The message holds
+ * all of them, one per line, in the format the command line prints; line()
+ * is where the first one is.
+ */
+public class CompileError extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+
+    CompileError(String messages, int line) {
+        super(messages.stripTrailing());
+        this.line = line;
+    }
+
+    /** The line of the first error, or -1 if it isn't known. */
+    public int line() {
+        return line;
+    }
+}
@@ -0,0 +1,98 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Line coverage for --coverage, written as an LCOV tracefile.
+ *
+ * Each source file gets two bitmaps indexed by line, sized from the last
+ * token's line when the file is parsed: lines that start a statement, and
+ * lines that have run. The parser hands every statement a Probe holding
+ * its word in the hit bitmap and its bit, so executing a statement is a
+ * null check and an OR, with no lookups. Without --coverage statements
+ * have no probe and only the null check remains.
+ *
+ * Hits are recorded as bits, so every executed line is reported with a
+ * count of 1. Lines share words, and spawned tasks run statements on other
+ * threads, so a bit is set with an atomic OR; only the first hit of a line
+ * pays for it.
+ */
+class Coverage {
+    private final Map<Path, File> files = new LinkedHashMap<>();
+
+    static class File {
+        final Path path;
+        private final long[] executable;
+        private final long[] hits;
+        private final Probe[] probes;
+
+        private File(Path path, int lines) {
+            this.path = path;
+            this.executable = new long[(lines >> 6) + 1];
+            this.hits = new long[(lines >> 6) + 1];
+            this.probes = new Probe[lines + 1];
+        }
+
+        // Marks the line as executable and returns the probe statements on it share
+        Probe probe(int line) {
+            Probe probe = probes[line];
+            if (probe == null) {
+                executable[line >> 6] |= 1L << line;
+                probe = new Probe(hits, line >> 6, 1L << line);
+                probes[line] = probe;
+            }
+            return probe;
+        }
+    }
+
+    static class Probe {
+        private static final VarHandle HITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+        private final long[] hits;
+        private final int word;
+        private final long bit;
+
+        private Probe(long[] hits, int word, long bit) {
+            this.hits = hits;
+            this.word = word;
+            this.bit = bit;
+        }
+
+        void hit() {
+            if ((hits[word] & bit) == 0) HITS.getAndBitwiseOr(hits, word, bit);
+        }
+    }
+
+    // Modules are compiled on pool threads, so files can be added concurrently
+    synchronized File file(Path path, int lines) {
+        return files.computeIfAbsent(path.toAbsolutePath().normalize(), key -> new File(key, lines));
+    }
+
+    synchronized void write(Path output) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output))) {
+            for (File file : files.values()) {
+                int found = 0;
+                int hit = 0;
+                out.println("TN:");
+                out.println("SF:" + file.path);
+                for (int line = 1; line < file.probes.length; line++) {
+                    if ((file.executable[line >> 6] & (1L << line)) == 0) continue;
+                    boolean covered = (file.hits[line >> 6] & (1L << line)) != 0;
+                    out.println("DA:" + line + "," + (covered ? 1 : 0));
+                    found++;
+                    if (covered) hit++;
+                }
+                out.println("LF:" + found);
+                out.println("LH:" + hit);
+                out.println("end_of_record");
+            }
+        }
+    }
+}
@@ -1,25 +1,42 @@
 package jlox;
 
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Environment implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Concurrent because spawned tasks share the environments their closures captured.
+    // Made on the first define, since many calls and blocks never define anything.
+    private Map<String, Object> values;
 
     Environment() {
         enclosing = null;
+        values = new ConcurrentHashMap<>();
+        if (ExecutionStats.enabled) ExecutionStats.environment();
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        if (ExecutionStats.enabled) ExecutionStats.environment();
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        // Only the thread running a scope defines in it, so creating the map needs no lock
+        if (values == null) values = new ConcurrentHashMap<>(4);
+        values.put(name, Nil.wrap(value));
+    }
+
+    // All bindings in this scope, with nil stored as Nil.VALUE
+    Map<String, Object> bindings() {
+        return values != null ? values : Collections.emptyMap();
     }
 
     Environment ancestor(int distance) {
+        if (ExecutionStats.enabled) ExecutionStats.ancestor(distance);
         Environment environment = this;
         for(int i = 0; i < distance; i++) {
             environment = environment.enclosing;
@@ -29,16 +46,17 @@ public class Environment {
     }
 
     public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        return Nil.unwrap(ancestor(distance).values.get(name));
     }
 
     public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).values.put(name.lexeme, Nil.wrap(value));
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme))
-            return values.get(name.lexeme);
+        Object value = values != null ? values.get(name.lexeme) : null;
+        if (value != null)
+            return Nil.unwrap(value);
 
         if (enclosing != null) 
             return enclosing.get(name);
@@ -47,10 +65,8 @@ public class Environment {
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        if (values != null && values.replace(name.lexeme, Nil.wrap(value)) != null)
             return;
-        }
         
         if (enclosing != null) {
             enclosing.assign(name, value);
@@ -0,0 +1,117 @@
+package jlox;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * Limits on how much work a script may do, for running code that isn't
+ * trusted: a number of steps, a wall-clock deadline, and cancellation from
+ * another thread.
+ *
+ * A step is one loop iteration or one Lox function call. Those are the only
+ * places a program can keep running without reaching the end of its text,
+ * so charging them is enough to stop any script, and straight-line code is
+ * never slowed down. Each step only decrements a counter; the clock, the
+ * cancel flag and the step limit are looked at once every CHECK_INTERVAL
+ * steps, which keeps a cancelled or late script running for at most a few
+ * microseconds more.
+ *
+ * Running out raises a RuntimeError at the loop or function that took the
+ * last step. The budget stays exhausted, so anything run with it afterwards
+ * fails at its first step too.
+ *
+ * Spawned tasks share the budget of the script that started them. Their
+ * steps go through the same counter without locking, so with tasks running
+ * a step limit is only kept approximately; checks themselves are locked.
+ */
+class ExecutionBudget {
+    private static final int CHECK_INTERVAL = 1024;
+    // How often a blocked native looks at the clock and the cancel flag
+    private static final long WAIT_MILLIS = 50;
+
+    private final long maxSteps;
+    private final long timeoutMillis;
+    private final long deadline;
+
+    // Steps taken up to the last check, the size of the current batch and what is left of it
+    private long steps = 0;
+    private long batch;
+    private long countdown;
+
+    private volatile boolean cancelled = false;
+
+    // Why the budget ran out, repeated for every later step
+    private String exhausted = null;
+
+    /**
+     * Either limit may be zero for none. The deadline is counted from the
+     * moment the budget is created.
+     */
+    ExecutionBudget(long maxSteps, long timeoutMillis) {
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.timeoutMillis = timeoutMillis;
+        this.deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        this.batch = Math.min(CHECK_INTERVAL, this.maxSteps);
+        this.countdown = batch;
+    }
+
+    /** Stops the script at its next check. Safe to call from any thread. */
+    void cancel() {
+        cancelled = true;
+    }
+
+    // Charges one step, reported at the given token if the budget is exceeded
+    void tick(Token token) {
+        if (--countdown < 0) check(token);
+    }
+
+    private synchronized void check(Token token) {
+        steps += batch;
+        if (exhausted() == null && steps >= maxSteps) {
+            exhausted = "Script exceeded its budget of " + maxSteps + " steps.";
+        }
+        if (exhausted != null) {
+            batch = 0;
+            countdown = 0;
+            throw new RuntimeError(token, exhausted);
+        }
+
+        // This step is the first of the next batch
+        batch = Math.min(CHECK_INTERVAL, maxSteps - steps);
+        countdown = batch - 1;
+    }
+
+    // Why the budget ran out, looking at the cancel flag and the clock but not the steps
+    private synchronized String exhausted() {
+        if (exhausted == null) {
+            if (cancelled) {
+                exhausted = "Script was cancelled.";
+            } else if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                exhausted = "Script ran longer than " + timeoutMillis + " ms.";
+            }
+        }
+        return exhausted;
+    }
+
+    /**
+     * Waits on a condition for a native that blocks, such as a channel
+     * receive, waking up now and then so that a cancelled or timed-out
+     * script doesn't stay blocked. The caller holds the condition's lock and
+     * checks what it is waiting for again after each return. The budget may
+     * be null.
+     */
+    static void await(ExecutionBudget budget, Condition condition) {
+        try {
+            if (budget == null) {
+                condition.await();
+                return;
+            }
+            condition.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while waiting.");
+        }
+        String reason = budget.exhausted();
+        if (reason != null) throw new NativeError(reason);
+    }
+}
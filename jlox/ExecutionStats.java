@@ -0,0 +1,163 @@
+package jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide execution counters for the interpreter.
+ *
+ * Counting is off unless --stats is given or it is switched on through
+ * JMX, and each hook is a single volatile read while it is off. Counters
+ * are LongAdders, so interpreters on several threads don't contend on
+ * them. Counts are approximate while they are being updated, like any
+ * LongAdder sum.
+ */
+class ExecutionStats implements ExecutionStatsMXBean {
+    static volatile boolean enabled = false;
+
+    private static final int DEPTH_BUCKETS = 16;
+
+    private static final ClassValue<LongAdder> nodes = new ClassValue<LongAdder>() {
+        @Override
+        protected LongAdder computeValue(Class<?> type) {
+            LongAdder adder = new LongAdder();
+            nodeCounters.put(type, adder);
+            return adder;
+        }
+    };
+    private static final Map<Class<?>, LongAdder> nodeCounters = new ConcurrentHashMap<>();
+
+    private static final LongAdder functionCalls = new LongAdder();
+    private static final LongAdder environments = new LongAdder();
+    private static final LongAdder instances = new LongAdder();
+    private static final LongAdder boundMethods = new LongAdder();
+    private static final LongAdder boxedDoubles = new LongAdder();
+    private static final LongAdder[] depths = new LongAdder[DEPTH_BUCKETS + 1];
+
+    static {
+        for (int i = 0; i < depths.length; i++) depths[i] = new LongAdder();
+    }
+
+    // Callers check enabled first, so these only run while counting
+    static void node(Object node) {
+        nodes.get(node.getClass()).increment();
+    }
+
+    static void functionCall() {
+        functionCalls.increment();
+    }
+
+    static void environment() {
+        environments.increment();
+    }
+
+    static void instance() {
+        instances.increment();
+    }
+
+    static void boundMethod() {
+        boundMethods.increment();
+    }
+
+    static void boxedDouble() {
+        boxedDoubles.increment();
+    }
+
+    static void ancestor(int distance) {
+        depths[Math.min(distance, DEPTH_BUCKETS)].increment();
+    }
+
+    static void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new ExecutionStats(), new ObjectName("jlox:type=ExecutionStats"));
+    }
+
+    static void dump() {
+        ExecutionStats stats = new ExecutionStats();
+        System.err.println("Node executions:");
+        for (Map.Entry<String, Long> entry : stats.getNodeExecutions().entrySet()) {
+            System.err.printf("  %-20s %12d\n", entry.getKey(), entry.getValue());
+        }
+        System.err.printf("%-22s %12d\n", "Function calls", stats.getFunctionCalls());
+        System.err.printf("%-22s %12d\n", "Environments created", stats.getEnvironmentsCreated());
+        System.err.printf("%-22s %12d\n", "Instances created", stats.getInstancesCreated());
+        System.err.printf("%-22s %12d\n", "Bound methods created", stats.getBoundMethodsCreated());
+        System.err.printf("%-22s %12d\n", "Boxed doubles created", stats.getBoxedDoublesCreated());
+        System.err.println("Environment depth of resolved lookups:");
+        long[] histogram = stats.getEnvironmentDepthHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] == 0) continue;
+            String depth = i < DEPTH_BUCKETS ? Integer.toString(i) : DEPTH_BUCKETS + "+";
+            System.err.printf("  %-20s %12d\n", depth, histogram[i]);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        ExecutionStats.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getNodeExecutions() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<Class<?>, LongAdder> entry : nodeCounters.entrySet()) {
+            // Stmt.If and Expr.If would both be "If", so keep the enclosing class
+            String name = entry.getKey().getName();
+            counts.put(name.substring(name.lastIndexOf('.') + 1).replace('$', '.'), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return functionCalls.sum();
+    }
+
+    @Override
+    public long getEnvironmentsCreated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getInstancesCreated() {
+        return instances.sum();
+    }
+
+    @Override
+    public long getBoundMethodsCreated() {
+        return boundMethods.sum();
+    }
+
+    @Override
+    public long getBoxedDoublesCreated() {
+        return boxedDoubles.sum();
+    }
+
+    @Override
+    public long[] getEnvironmentDepthHistogram() {
+        long[] histogram = new long[depths.length];
+        for (int i = 0; i < depths.length; i++) histogram[i] = depths[i].sum();
+        return histogram;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : nodeCounters.values()) adder.reset();
+        functionCalls.reset();
+        environments.reset();
+        instances.reset();
+        boundMethods.reset();
+        boxedDoubles.reset();
+        for (LongAdder adder : depths) adder.reset();
+    }
+}
@@ -0,0 +1,30 @@
+package jlox;
+
+import java.util.Map;
+
+/**
+ * Management interface of ExecutionStats, registered as
+ * jlox:type=ExecutionStats when jlox runs with --jmx.
+ */
+public interface ExecutionStatsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    Map<String, Long> getNodeExecutions();
+
+    long getFunctionCalls();
+
+    long getEnvironmentsCreated();
+
+    long getInstancesCreated();
+
+    long getBoundMethodsCreated();
+
+    long getBoxedDoublesCreated();
+
+    // Index i counts lookups that walked i environments up; the last bucket is everything deeper
+    long[] getEnvironmentDepthHistogram();
+
+    void reset();
+}
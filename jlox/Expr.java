@@ -1,8 +1,15 @@
 package jlox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+abstract class Expr implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static final int GLOBAL = -1;
+	// Scopes between a variable, this or super and its declaration, set by the Resolver
+	int depth = GLOBAL;
+
 	interface Visitor<R> {
 		R visit(Assign expr);
 		R visit(Binary expr);
@@ -20,6 +27,8 @@ abstract class Expr {
 	}
 
 	static class Assign extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Token name;
 		final Token operator;
 		final Expr value;
@@ -37,6 +46,8 @@ abstract class Expr {
 	}
 
 	static class Binary extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr left;
 		final Token operator;
 		final Expr right;
@@ -54,6 +65,8 @@ abstract class Expr {
 	}
 
 	static class Call extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr callee;
 		final Token paren;
 		final List<Expr> arguments;
@@ -71,6 +84,8 @@ abstract class Expr {
 	}
 
 	static class Get extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr object;
 		final Token name;
 
@@ -86,6 +101,8 @@ abstract class Expr {
 	}
 
 	static class Grouping extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr expression;
 
 		Grouping(Expr expression) {
@@ -99,6 +116,8 @@ abstract class Expr {
 	}
 
 	static class Literal extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Object value;
 
 		Literal(Object value) {
@@ -112,6 +131,8 @@ abstract class Expr {
 	}
 
 	static class Logical extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr left;
 		final Token operator;
 		final Expr right;
@@ -129,6 +150,8 @@ abstract class Expr {
 	}
 
 	static class Set extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr object;
 		final Token name;
 		final Expr value;
@@ -146,6 +169,8 @@ abstract class Expr {
 	}
 
 	static class Super extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Token keyword;
 		final Token method;
 
@@ -161,6 +186,8 @@ abstract class Expr {
 	}
 
 	static class Ternary extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Expr condition;
 		final Expr thenBranch;
 		final Expr elseClause;
@@ -178,6 +205,8 @@ abstract class Expr {
 	}
 
 	static class This extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Token keyword;
 
 		This(Token keyword) {
@@ -191,6 +220,8 @@ abstract class Expr {
 	}
 
 	static class Unary extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Token operator;
 		final Expr right;
 
@@ -206,6 +237,8 @@ abstract class Expr {
 	}
 
 	static class Var extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		final Token name;
 
 		Var(Token name) {
@@ -0,0 +1,692 @@
+package jlox;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact encoding of a parsed and resolved program.
+ *
+ * Every node is a run of ints in a single arena: a kind tag followed by its
+ * fields. Child nodes and lists are stored as arena offsets, tokens as a
+ * packed (line, type) word plus an index into an interned name table, and
+ * literal values as an index into a constant table. Resolver distances are
+ * stored inline in the nodes that need them, so the encoding is self-contained.
+ *
+ * The object tree is only materialized on demand: top-level statements are
+ * decoded one at a time as the interpreter reaches them, and function bodies
+ * when the function is first called.
+ */
+class FlatAst {
+    // Expressions
+    private static final int ASSIGN = 1;
+    private static final int BINARY = 2;
+    private static final int CALL = 3;
+    private static final int GET = 4;
+    private static final int GROUPING = 5;
+    private static final int LITERAL = 6;
+    private static final int LOGICAL = 7;
+    private static final int SET = 8;
+    private static final int SUPER = 9;
+    private static final int TERNARY = 10;
+    private static final int THIS = 11;
+    private static final int UNARY = 12;
+    private static final int VAR = 13;
+
+    // Statements
+    private static final int BLOCK = 14;
+    private static final int CLASS = 15;
+    private static final int BREAK = 16;
+    private static final int EXPRESSION = 17;
+    private static final int FUNCTION = 18;
+    private static final int IF = 19;
+    private static final int PRINT = 20;
+    private static final int RETURN = 21;
+    private static final int VAR_DECL = 22;
+    private static final int WHILE = 23;
+    private static final int IMPORT = 24;
+
+    // Every kind by its tag, for fingerprint(); a new kind goes here too
+    private static final String[] KINDS = {
+        null, "ASSIGN", "BINARY", "CALL", "GET", "GROUPING", "LITERAL", "LOGICAL", "SET", "SUPER",
+        "TERNARY", "THIS", "UNARY", "VAR", "BLOCK", "CLASS", "BREAK", "EXPRESSION", "FUNCTION",
+        "IF", "PRINT", "RETURN", "VAR_DECL", "WHILE", "IMPORT"
+    };
+
+    // Constant tags in the serialized form
+    private static final byte NIL_CONSTANT = 0;
+    private static final byte TRUE_CONSTANT = 1;
+    private static final byte FALSE_CONSTANT = 2;
+    private static final byte NUMBER_CONSTANT = 3;
+    private static final byte STRING_CONSTANT = 4;
+
+    private static final int NONE = -1;
+    // Decoded statements of a function body are published through this, see Body
+    private static final VarHandle DECODED = MethodHandles.arrayElementVarHandle(Stmt[].class);
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    /**
+     * A hash of the token types and node kinds, whose numbers the encoding
+     * stores. ProgramCache keeps it with each entry, so adding or reordering
+     * either makes old entries misses without a version bump.
+     */
+    static int fingerprint() {
+        int hash = 1;
+        for (TokenType type : TYPES) hash = 31 * hash + type.name().hashCode();
+        for (int kind = 1; kind < KINDS.length; kind++) hash = 31 * hash + KINDS[kind].hashCode();
+        return hash;
+    }
+
+    final int[] code;
+    final String[] names;
+    final Object[] constants;
+    final int root;
+
+    FlatAst(int[] code, String[] names, Object[] constants, int root) {
+        this.code = code;
+        this.names = names;
+        this.constants = constants;
+        this.root = root;
+    }
+
+    static FlatAst encode(List<Stmt> statements) {
+        return new Encoder().encode(statements);
+    }
+
+    /**
+     * Top-level statements, decoded each time they are read. Decoded nodes
+     * carry their resolver distances, as resolved ones do.
+     */
+    List<Stmt> statements() {
+        Decoder decoder = new Decoder();
+        return new AbstractList<Stmt>() {
+            @Override
+            public Stmt get(int index) {
+                return decoder.stmt(code[root + 1 + index]);
+            }
+
+            @Override
+            public int size() {
+                return code[root];
+            }
+        };
+    }
+
+    /**
+     * The top-level import statements, without decoding anything else.
+     */
+    List<Stmt.Import> imports() {
+        Decoder decoder = new Decoder();
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (int i = 0; i < code[root]; i++) {
+            int node = code[root + 1 + i];
+            if (node != NONE && code[node] == IMPORT) {
+                imports.add((Stmt.Import)decoder.stmt(node));
+            }
+        }
+        return imports;
+    }
+
+    /**
+     * Serialized form: root, the arena, the name table and the constant table,
+     * each length-prefixed. Strings are stored as UTF-8.
+     */
+    ByteBuffer toBytes() {
+        byte[][] encodedNames = new byte[names.length][];
+        int size = 4 * 4 + code.length * 4;
+        for (int i = 0; i < names.length; i++) {
+            encodedNames[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + encodedNames[i].length;
+        }
+
+        byte[][] encodedStrings = new byte[constants.length][];
+        for (int i = 0; i < constants.length; i++) {
+            size += 1;
+            if (constants[i] instanceof Double) {
+                size += 8;
+            } else if (constants[i] instanceof String) {
+                encodedStrings[i] = ((String)constants[i]).getBytes(StandardCharsets.UTF_8);
+                size += 4 + encodedStrings[i].length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(root);
+        buffer.putInt(code.length);
+        buffer.asIntBuffer().put(code);
+        buffer.position(buffer.position() + code.length * 4);
+
+        buffer.putInt(names.length);
+        for (byte[] name : encodedNames) {
+            buffer.putInt(name.length);
+            buffer.put(name);
+        }
+
+        buffer.putInt(constants.length);
+        for (int i = 0; i < constants.length; i++) {
+            Object value = constants[i];
+            if (value == null) {
+                buffer.put(NIL_CONSTANT);
+            } else if (value instanceof Boolean) {
+                buffer.put((boolean)value ? TRUE_CONSTANT : FALSE_CONSTANT);
+            } else if (value instanceof Double) {
+                buffer.put(NUMBER_CONSTANT);
+                buffer.putDouble((double)value);
+            } else {
+                buffer.put(STRING_CONSTANT);
+                buffer.putInt(encodedStrings[i].length);
+                buffer.put(encodedStrings[i]);
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    static FlatAst fromBytes(ByteBuffer buffer) {
+        int root = buffer.getInt();
+        int[] code = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(code);
+        buffer.position(buffer.position() + code.length * 4);
+
+        String[] names = new String[buffer.getInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = string(buffer);
+        }
+
+        Object[] constants = new Object[buffer.getInt()];
+        for (int i = 0; i < constants.length; i++) {
+            byte tag = buffer.get();
+            switch (tag) {
+                case NIL_CONSTANT: constants[i] = null; break;
+                case TRUE_CONSTANT: constants[i] = true; break;
+                case FALSE_CONSTANT: constants[i] = false; break;
+                case NUMBER_CONSTANT: constants[i] = buffer.getDouble(); break;
+                case STRING_CONSTANT: constants[i] = string(buffer); break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant tag: " + tag);
+            }
+        }
+
+        return new FlatAst(code, names, constants, root);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final Map<String, Integer> nameIndex = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        private final List<Object> constants = new ArrayList<>();
+        private int[] code = new int[256];
+        private int size = 0;
+
+        FlatAst encode(List<Stmt> statements) {
+            int root = stmts(statements);
+            return new FlatAst(Arrays.copyOf(code, size),
+                names.toArray(new String[0]), constants.toArray(), root);
+        }
+
+        // Appends a node with the given number of field slots, returning its offset
+        private int node(int kind, int slots) {
+            int offset = reserve(slots + 1);
+            code[offset] = kind;
+            return offset;
+        }
+
+        private int reserve(int slots) {
+            if (size + slots > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + slots));
+            }
+            int offset = size;
+            size += slots;
+            return offset;
+        }
+
+        private void token(int slot, Token token) {
+            code[slot] = token.line << 8 | token.type.ordinal();
+            Integer index = nameIndex.get(token.lexeme);
+            if (index == null) {
+                index = names.size();
+                names.add(token.lexeme);
+                nameIndex.put(token.lexeme, index);
+            }
+            code[slot + 1] = index;
+        }
+
+        private int constant(Object value) {
+            // Doubles and strings can share a table since they never compare equal
+            Integer index = value == null ? null : constantIndex.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                if (value != null) constantIndex.put(value, index);
+            }
+            return index;
+        }
+
+        private int expr(Expr expr) {
+            return expr == null ? NONE : expr.accept(this);
+        }
+
+        private int stmt(Stmt stmt) {
+            return stmt == null ? NONE : stmt.accept(this);
+        }
+
+        private int exprs(List<Expr> exprs) {
+            int list = reserve(exprs.size() + 1);
+            code[list] = exprs.size();
+            for (int i = 0; i < exprs.size(); i++) {
+                int child = expr(exprs.get(i));
+                code[list + 1 + i] = child;
+            }
+            return list;
+        }
+
+        private int stmts(List<? extends Stmt> stmts) {
+            int list = reserve(stmts.size() + 1);
+            code[list] = stmts.size();
+            for (int i = 0; i < stmts.size(); i++) {
+                int child = stmt(stmts.get(i));
+                code[list + 1 + i] = child;
+            }
+            return list;
+        }
+
+        private int tokens(List<Token> tokens) {
+            int list = reserve(tokens.size() * 2 + 1);
+            code[list] = tokens.size();
+            for (int i = 0; i < tokens.size(); i++) {
+                token(list + 1 + i * 2, tokens.get(i));
+            }
+            return list;
+        }
+
+        @Override
+        public Integer visit(Expr.Assign expr) {
+            int node = node(ASSIGN, 6);
+            token(node + 1, expr.name);
+            token(node + 3, expr.operator);
+            code[node + 6] = expr.depth;
+            int value = expr(expr.value);
+            code[node + 5] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Binary expr) {
+            int node = node(BINARY, 4);
+            token(node + 2, expr.operator);
+            int left = expr(expr.left);
+            code[node + 1] = left;
+            int right = expr(expr.right);
+            code[node + 4] = right;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Call expr) {
+            int node = node(CALL, 4);
+            token(node + 2, expr.paren);
+            int callee = expr(expr.callee);
+            code[node + 1] = callee;
+            int arguments = exprs(expr.arguments);
+            code[node + 4] = arguments;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Get expr) {
+            int node = node(GET, 3);
+            token(node + 2, expr.name);
+            int object = expr(expr.object);
+            code[node + 1] = object;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Grouping expr) {
+            int node = node(GROUPING, 1);
+            int expression = expr(expr.expression);
+            code[node + 1] = expression;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Literal expr) {
+            int node = node(LITERAL, 1);
+            code[node + 1] = constant(expr.value);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Logical expr) {
+            int node = node(LOGICAL, 4);
+            token(node + 2, expr.operator);
+            int left = expr(expr.left);
+            code[node + 1] = left;
+            int right = expr(expr.right);
+            code[node + 4] = right;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Set expr) {
+            int node = node(SET, 4);
+            token(node + 2, expr.name);
+            int object = expr(expr.object);
+            code[node + 1] = object;
+            int value = expr(expr.value);
+            code[node + 4] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Super expr) {
+            int node = node(SUPER, 5);
+            token(node + 1, expr.keyword);
+            token(node + 3, expr.method);
+            code[node + 5] = expr.depth;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Ternary expr) {
+            int node = node(TERNARY, 3);
+            int condition = expr(expr.condition);
+            code[node + 1] = condition;
+            int thenBranch = expr(expr.thenBranch);
+            code[node + 2] = thenBranch;
+            int elseClause = expr(expr.elseClause);
+            code[node + 3] = elseClause;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.This expr) {
+            int node = node(THIS, 3);
+            token(node + 1, expr.keyword);
+            code[node + 3] = expr.depth;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Unary expr) {
+            int node = node(UNARY, 3);
+            token(node + 1, expr.operator);
+            int right = expr(expr.right);
+            code[node + 3] = right;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Expr.Var expr) {
+            int node = node(VAR, 3);
+            token(node + 1, expr.name);
+            code[node + 3] = expr.depth;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Block stmt) {
+            int node = node(BLOCK, 1);
+            int statements = stmts(stmt.statements);
+            code[node + 1] = statements;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Class stmt) {
+            int node = node(CLASS, 5);
+            token(node + 1, stmt.name);
+            int superclass = expr(stmt.superclass);
+            code[node + 3] = superclass;
+            int methods = stmts(stmt.methods);
+            code[node + 4] = methods;
+            int staticMethods = stmts(stmt.staticMethods);
+            code[node + 5] = staticMethods;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Break stmt) {
+            return node(BREAK, 0);
+        }
+
+        @Override
+        public Integer visit(Stmt.Expression stmt) {
+            int node = node(EXPRESSION, 1);
+            int expression = expr(stmt.expression);
+            code[node + 1] = expression;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Function stmt) {
+            int node = node(FUNCTION, 4);
+            token(node + 1, stmt.name);
+            int params = tokens(stmt.params);
+            code[node + 3] = params;
+            int body = stmts(stmt.body);
+            code[node + 4] = body;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.If stmt) {
+            int node = node(IF, 3);
+            int condition = expr(stmt.condition);
+            code[node + 1] = condition;
+            int thenBranch = stmt(stmt.thenBranch);
+            code[node + 2] = thenBranch;
+            int elseBranch = stmt(stmt.elseBranch);
+            code[node + 3] = elseBranch;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Import stmt) {
+            int node = node(IMPORT, 3);
+            token(node + 1, stmt.keyword);
+            code[node + 3] = constant(stmt.path);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Print stmt) {
+            int node = node(PRINT, 1);
+            int expression = expr(stmt.expression);
+            code[node + 1] = expression;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Return stmt) {
+            int node = node(RETURN, 3);
+            token(node + 1, stmt.keyword);
+            int value = expr(stmt.value);
+            code[node + 3] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.Var stmt) {
+            int node = node(VAR_DECL, 3);
+            token(node + 1, stmt.name);
+            int initializer = expr(stmt.initializer);
+            code[node + 3] = initializer;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Stmt.While stmt) {
+            int node = node(WHILE, 4);
+            token(node + 1, stmt.keyword);
+            int condition = expr(stmt.condition);
+            code[node + 3] = condition;
+            int body = stmt(stmt.body);
+            code[node + 4] = body;
+            return node;
+        }
+    }
+
+    private class Decoder {
+        private Token token(int slot) {
+            int packed = code[slot];
+            return new Token(TYPES[packed & 0xff], names[code[slot + 1]], null, packed >>> 8);
+        }
+
+        private <T extends Expr> T resolved(T expr, int depth) {
+            expr.depth = depth;
+            return expr;
+        }
+
+        Expr expr(int node) {
+            if (node == NONE) return null;
+
+            switch (code[node]) {
+                case ASSIGN:
+                    return resolved(new Expr.Assign(token(node + 1), token(node + 3),
+                        expr(code[node + 5])), code[node + 6]);
+                case BINARY:
+                    return new Expr.Binary(expr(code[node + 1]), token(node + 2), expr(code[node + 4]));
+                case CALL:
+                    return new Expr.Call(expr(code[node + 1]), token(node + 2), exprs(code[node + 4]));
+                case GET:
+                    return new Expr.Get(expr(code[node + 1]), token(node + 2));
+                case GROUPING:
+                    return new Expr.Grouping(expr(code[node + 1]));
+                case LITERAL:
+                    return new Expr.Literal(constants[code[node + 1]]);
+                case LOGICAL:
+                    return new Expr.Logical(expr(code[node + 1]), token(node + 2), expr(code[node + 4]));
+                case SET:
+                    return new Expr.Set(expr(code[node + 1]), token(node + 2), expr(code[node + 4]));
+                case SUPER:
+                    return resolved(new Expr.Super(token(node + 1), token(node + 3)), code[node + 5]);
+                case TERNARY:
+                    return new Expr.Ternary(expr(code[node + 1]), expr(code[node + 2]), expr(code[node + 3]));
+                case THIS:
+                    return resolved(new Expr.This(token(node + 1)), code[node + 3]);
+                case UNARY:
+                    return new Expr.Unary(token(node + 1), expr(code[node + 3]));
+                case VAR:
+                    return resolved(new Expr.Var(token(node + 1)), code[node + 3]);
+                default:
+                    throw new IllegalStateException("Not an expression node: " + code[node]);
+            }
+        }
+
+        Stmt stmt(int node) {
+            if (node == NONE) return null;
+
+            switch (code[node]) {
+                case BLOCK:
+                    return new Stmt.Block(stmts(code[node + 1]));
+                case CLASS:
+                    return new Stmt.Class(token(node + 1), (Expr.Var)expr(code[node + 3]),
+                        functions(code[node + 4]), functions(code[node + 5]));
+                case BREAK:
+                    return new Stmt.Break();
+                case EXPRESSION:
+                    return new Stmt.Expression(expr(code[node + 1]));
+                case FUNCTION:
+                    return function(node);
+                case IF:
+                    return new Stmt.If(expr(code[node + 1]), stmt(code[node + 2]), stmt(code[node + 3]));
+                case IMPORT:
+                    return new Stmt.Import(token(node + 1), (String)constants[code[node + 3]]);
+                case PRINT:
+                    return new Stmt.Print(expr(code[node + 1]));
+                case RETURN:
+                    return new Stmt.Return(token(node + 1), expr(code[node + 3]));
+                case VAR_DECL:
+                    return new Stmt.Var(token(node + 1), expr(code[node + 3]));
+                case WHILE:
+                    return new Stmt.While(token(node + 1), expr(code[node + 3]), stmt(code[node + 4]));
+                default:
+                    throw new IllegalStateException("Not a statement node: " + code[node]);
+            }
+        }
+
+        private Stmt.Function function(int node) {
+            int params = code[node + 3];
+            List<Token> tokens = new ArrayList<>(code[params]);
+            for (int i = 0; i < code[params]; i++) {
+                tokens.add(token(params + 1 + i * 2));
+            }
+            return new Stmt.Function(token(node + 1), tokens, new Body(code[node + 4]));
+        }
+
+        private List<Expr> exprs(int list) {
+            List<Expr> exprs = new ArrayList<>(code[list]);
+            for (int i = 0; i < code[list]; i++) {
+                exprs.add(expr(code[list + 1 + i]));
+            }
+            return exprs;
+        }
+
+        private List<Stmt> stmts(int list) {
+            List<Stmt> stmts = new ArrayList<>(code[list]);
+            for (int i = 0; i < code[list]; i++) {
+                stmts.add(stmt(code[list + 1 + i]));
+            }
+            return stmts;
+        }
+
+        private List<Stmt.Function> functions(int list) {
+            List<Stmt.Function> functions = new ArrayList<>(code[list]);
+            for (int i = 0; i < code[list]; i++) {
+                functions.add(function(code[list + 1 + i]));
+            }
+            return functions;
+        }
+
+        // A function body, decoded statement by statement the first time it runs
+        private class Body extends AbstractList<Stmt> implements Serializable {
+            private static final long serialVersionUID = 1L;
+
+            private final int list;
+            private final Stmt[] decoded;
+
+            Body(int list) {
+                this.list = list;
+                this.decoded = new Stmt[code[list]];
+            }
+
+            @Override
+            public Stmt get(int index) {
+                // Tasks may share the body; releasing the statement makes the distances set on its nodes visible with it
+                Stmt stmt = (Stmt)DECODED.getAcquire(decoded, index);
+                if (stmt == null) {
+                    stmt = stmt(code[list + 1 + index]);
+                    DECODED.setRelease(decoded, index, stmt);
+                }
+                return stmt;
+            }
+
+            @Override
+            public int size() {
+                return decoded.length;
+            }
+
+            // Heap images hold the decoded statements, not the decoder
+            private Object writeReplace() {
+                return new ArrayList<>(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events for Lox execution.
+ *
+ * All of them are disabled unless a recording turns them on, for example
+ * with bin/jlox.jfc. Java stack traces are off: they would only show the
+ * interpreter's own frames.
+ *
+ * Loading the first event class initializes the JFR support code, which
+ * takes a few hundred milliseconds, so the event classes are only touched
+ * when Flight Recorder was started with the JVM or -Djlox.jfr=true is set
+ * (to allow starting a recording later with jcmd). Otherwise every helper
+ * below returns at once on a constant, and callers never see an event.
+ */
+class FlightEvents {
+    static final boolean enabled = FlightRecorder.isInitialized() || Boolean.getBoolean("jlox.jfr");
+
+    @Name("jlox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("A phase of running a Lox program: scan, parse, resolve or execute")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("jlox.FunctionCall")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("A call to a Lox function or method that took longer than the threshold")
+    @Enabled(false)
+    @StackTrace(false)
+    @Threshold("20 ms")
+    static class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        @Description("Line the function is declared on")
+        int line;
+    }
+
+    @Name("jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static class RuntimeError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.ClassDefinition")
+    @Label("Lox Class Definition")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static class ClassDefinition extends Event {
+        @Label("Class")
+        String name;
+
+        @Label("Superclass")
+        String superclass;
+
+        @Label("Methods")
+        int methods;
+
+        @Label("Line")
+        int line;
+    }
+
+    // Each begin method returns null when events are unavailable; the matching end accepts that
+
+    static Phase beginPhase(String name) {
+        if (!enabled) return null;
+        Phase event = new Phase();
+        event.phase = name;
+        event.begin();
+        return event;
+    }
+
+    static void endPhase(Phase event) {
+        if (event != null) event.commit();
+    }
+
+    static FunctionCall beginCall() {
+        if (!enabled) return null;
+        FunctionCall event = new FunctionCall();
+        event.begin();
+        return event;
+    }
+
+    static void endCall(FunctionCall event, Stmt.Function declaration) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = declaration.name.lexeme;
+            event.line = declaration.name.line;
+            event.commit();
+        }
+    }
+
+    static ClassDefinition beginClass() {
+        if (!enabled) return null;
+        ClassDefinition event = new ClassDefinition();
+        event.begin();
+        return event;
+    }
+
+    static void endClass(ClassDefinition event, Stmt.Class stmt, LoxClass superclass) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.name = stmt.name.lexeme;
+            event.superclass = superclass != null ? superclass.name : null;
+            event.methods = stmt.methods.size() + stmt.staticMethods.size();
+            event.line = stmt.name.line;
+            event.commit();
+        }
+    }
+
+    static void runtimeError(jlox.RuntimeError error) {
+        if (!enabled) return;
+        RuntimeError event = new RuntimeError();
+        if (event.shouldCommit()) {
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Approximate memory accounting for Lox values, and the limit set with
+ * --max-memory.
+ *
+ * The interpreter charges a rough size whenever a script makes something
+ * that can hold on to memory: an instance or a field, a string built with
+ * '+', a closure, a call's environment. Charges only add to a counter.
+ * Once the counter says the limit may have been passed, the retained size
+ * is measured by walking everything reachable from the globals and the
+ * environments of the calls in progress. Only if that is over the limit
+ * does the script fail, with a RuntimeError at the allocation that tipped
+ * it over. Short-lived garbage therefore costs a walk now and then but
+ * never fails a script.
+ *
+ * After a walk the next one is due when the rest of the limit has been
+ * charged again, but not before an eighth of the limit, so a script living
+ * close to its limit isn't walked on every allocation. Retained memory can
+ * overshoot the limit by that much before it is noticed.
+ *
+ * Sizes assume a 64-bit JVM with compressed pointers and count the Java
+ * objects behind each Lox value. Values only referenced from Java locals,
+ * such as arguments being evaluated, aren't seen by the walk.
+ *
+ * Spawned tasks share the account of the script that started them. The
+ * counter is a plain field all of them add to, so a few charges may be
+ * lost; it only decides when to walk. The walk itself is locked, and sees
+ * the globals and the calls of the task that triggered it, not the calls
+ * in progress on other tasks.
+ */
+class HeapAccount {
+    // Environment or instance object, its ConcurrentHashMap, and the table made on first put
+    static final long ENVIRONMENT = 24 + 64 + 48;
+    static final long INSTANCE = 24 + 64;
+    static final long TABLE = 48;
+    // One map node, per variable or field
+    static final long BINDING = 32;
+    static final long FUNCTION = 24;
+    static final long NUMBER = 16;
+
+    private final long maxBytes;
+
+    // Bytes found by the last walk, charged since, and charges allowed before the next walk
+    private long retained = 0;
+    private long charged = 0;
+    private long slack;
+
+    // Why the limit was hit, repeated for every later charge
+    private String exhausted = null;
+
+    HeapAccount(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.slack = maxBytes;
+    }
+
+    static long string(String value) {
+        // Compact strings: object, array header and one byte per Latin-1 character
+        return 24 + 16 + value.length();
+    }
+
+    void charge(Interpreter interpreter, Token token, long bytes) {
+        charged += bytes;
+        if (charged > slack) check(interpreter, token, bytes);
+    }
+
+    // For natives, which have no token; going over the limit raises a NativeError instead
+    void charge(Interpreter interpreter, long bytes) {
+        charge(interpreter, null, bytes);
+    }
+
+    private synchronized void check(Interpreter interpreter, Token token, long bytes) {
+        if (exhausted == null) {
+            // The new value isn't stored anywhere yet, so add it to what the walk finds
+            retained = measure(interpreter) + bytes;
+            charged = 0;
+            if (retained > maxBytes) {
+                exhausted = "Script exceeded its memory limit of " + maxBytes + " bytes.";
+            } else {
+                slack = Math.max(maxBytes - retained, maxBytes / 8);
+            }
+        }
+        if (exhausted != null) {
+            slack = -1;
+            if (token == null) throw new NativeError(exhausted);
+            throw new RuntimeError(token, exhausted);
+        }
+    }
+
+    /** Returns the bytes retained by values reachable from the interpreter's environments. */
+    static long measure(Interpreter interpreter) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        // A list rather than a deque, since a missing enclosing scope or superclass puts nulls in it
+        List<Object> pending = new ArrayList<>(interpreter.activeEnvironments());
+        long bytes = 0;
+
+        while (!pending.isEmpty()) {
+            Object value = pending.remove(pending.size() - 1);
+            if (value == null || !seen.add(value)) continue;
+
+            if (value instanceof Environment) {
+                Environment environment = (Environment)value;
+                bytes += ENVIRONMENT + BINDING * environment.bindings().size();
+                pending.add(environment.enclosing);
+                pending.addAll(environment.bindings().values());
+            } else if (value instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance)value;
+                int fields = instance.fields().size();
+                bytes += INSTANCE + (fields > 0 ? TABLE + BINDING * fields : 0);
+                pending.add(instance.getLoxClass());
+                pending.addAll(instance.fields().values());
+                if (value instanceof LoxClass) {
+                    LoxClass loxClass = (LoxClass)value;
+                    bytes += TABLE + BINDING * loxClass.methods().size();
+                    pending.add(loxClass.superclass);
+                    pending.addAll(loxClass.methods().values());
+                }
+            } else if (value instanceof LoxList) {
+                Object[] elements = ((LoxList)value).snapshot();
+                bytes += LoxList.SIZE + LoxList.ELEMENT * elements.length;
+                pending.addAll(Arrays.asList(elements));
+            } else if (value instanceof LoxDict) {
+                LoxDict dict = (LoxDict)value;
+                bytes += LoxDict.SIZE + dict.tableBytes();
+                pending.addAll(dict.references());
+            } else if (value instanceof LoxFunction) {
+                bytes += FUNCTION;
+                pending.add(((LoxFunction)value).closure());
+            } else if (value instanceof String) {
+                bytes += string((String)value);
+            } else if (value instanceof Double) {
+                bytes += NUMBER;
+            }
+        }
+        return bytes;
+    }
+}
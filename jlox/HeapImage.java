@@ -0,0 +1,148 @@
+package jlox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves and restores the interpreter's global state as a binary image.
+ *
+ * An image holds every global binding together with everything reachable
+ * from it: classes, functions and their closures, instances, environments
+ * and the AST they run, which carries its resolver distances. Object
+ * serialization preserves sharing and cycles. Native functions and the
+ * global environment itself are written as references by name and bound to
+ * the restoring interpreter's own.
+ *
+ * Restoring only accepts the classes an image is made of: jlox's own and
+ * the JDK collections and boxed values they hold. Anything else in the
+ * stream fails the restore before it is instantiated.
+ */
+class HeapImage {
+    private static final int MAGIC = 0x4c4f5849; // "LOXI"
+    private static final int VERSION = 6;
+
+    // Besides jlox.*: the values and collections the interpreter's objects contain
+    private static final Set<String> JDK_CLASSES = Set.of(
+        "java.lang.Boolean", "java.lang.Double", "java.lang.Number",
+        "java.lang.String", "java.lang.Enum",
+        // Only as array element types; ArrayList and HashMap check their arrays as these
+        "java.lang.Object", "java.util.Map$Entry",
+        "java.util.ArrayList", "java.util.Arrays$ArrayList", "java.util.HashMap",
+        // A ConcurrentHashMap writes segments, which are locks, for compatibility with Java 7
+        "java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ConcurrentHashMap$Segment",
+        "java.util.concurrent.locks.ReentrantLock", "java.util.concurrent.locks.ReentrantLock$Sync",
+        "java.util.concurrent.locks.ReentrantLock$NonfairSync",
+        "java.util.concurrent.locks.AbstractQueuedSynchronizer",
+        "java.util.concurrent.locks.AbstractOwnableSynchronizer");
+
+    private static class GlobalsReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class NativeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+
+        NativeReference(String name) {
+            this.name = name;
+        }
+    }
+
+    static void save(Interpreter interpreter, Path path) throws IOException {
+        try (ImageWriter out = new ImageWriter(Files.newOutputStream(path), interpreter)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeObject(new HashMap<>(interpreter.globals.bindings()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void restore(Interpreter interpreter, Path path) throws IOException {
+        try (ImageReader in = new ImageReader(Files.newInputStream(path), interpreter)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a heap image, or from another version.");
+
+            Map<String, Object> globals = (Map<String, Object>)in.readObject();
+            for (Map.Entry<String, Object> global : globals.entrySet()) {
+                interpreter.globals.define(global.getKey(), global.getValue());
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static class ImageWriter extends ObjectOutputStream {
+        private final Interpreter interpreter;
+        private final Map<Object, String> nativeNames = new IdentityHashMap<>();
+
+        ImageWriter(OutputStream out, Interpreter interpreter) throws IOException {
+            super(new BufferedOutputStream(out));
+            this.interpreter = interpreter;
+            for (Map.Entry<String, LoxCallable> entry : interpreter.natives.entrySet()) {
+                nativeNames.put(entry.getValue(), entry.getKey());
+            }
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj == interpreter.globals) return new GlobalsReference();
+
+            String name = nativeNames.get(obj);
+            if (name != null) return new NativeReference(name);
+
+            return obj;
+        }
+    }
+
+    private static class ImageReader extends ObjectInputStream {
+        private final Interpreter interpreter;
+
+        ImageReader(InputStream in, Interpreter interpreter) throws IOException {
+            super(new BufferedInputStream(in));
+            this.interpreter = interpreter;
+            enableResolveObject(true);
+            setObjectInputFilter(ImageReader::filter);
+        }
+
+        private static ObjectInputFilter.Status filter(ObjectInputFilter.FilterInfo info) {
+            Class<?> type = info.serialClass();
+            if (type == null) return ObjectInputFilter.Status.UNDECIDED;
+            while (type.isArray()) type = type.getComponentType();
+            if (type.isPrimitive() || type.getPackageName().equals("jlox") || JDK_CLASSES.contains(type.getName())) {
+                return ObjectInputFilter.Status.ALLOWED;
+            }
+            return ObjectInputFilter.Status.REJECTED;
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof GlobalsReference) return interpreter.globals;
+
+            if (obj instanceof NativeReference) {
+                String name = ((NativeReference)obj).name;
+                LoxCallable function = interpreter.nativeFunction(name);
+                if (function == null)
+                    throw new InvalidObjectException("Unknown native function '" + name + "'.");
+                return function;
+            }
+
+            return obj;
+        }
+    }
+}
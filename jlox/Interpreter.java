@@ -1,61 +1,363 @@
 package jlox;
 
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-final class BreakException extends RuntimeException {}
+final class BreakException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+}
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // This flag is used to appease the testing suite
     boolean test = Global.test; 
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // Shared with the interpreters of spawned tasks, along with the natives and limits
+    final Environment globals;
+    final Map<String, LoxCallable> natives;
+    ModuleLoader modules = null;
+    // This interpreter's stack in the --profile profiler; tasks fork their own
+    Profiler.Stack profiler = null;
+    // Volatile so cancel() sees the budget of a run started on another thread
+    volatile ExecutionBudget budget = null;
+    HeapAccount heap = null;
+    // Caches calls to deterministic functions, for --memoize
+    Memoizer memo = null;
+    private Environment environment;
+
+    // Where print writes, and where execute() reports runtime errors
+    private PrintWriter out;
+    private PrintWriter err;
+
+    // Limits applied to each execute() call; zero means none
+    private long maxSteps = 0;
+    private long timeoutMillis = 0;
+    private long maxMemory = 0;
+
+    // Environments of the blocks and calls in progress, outermost first, for HeapAccount
+    private Environment[] frames = new Environment[64];
+    private int depth = 0;
+
+    public Interpreter() {
+        this(System.out, System.err);
+    }
+
+    /**
+     * Creates an interpreter with its own globals that prints to out and
+     * reports runtime errors from execute() to err. An interpreter runs one
+     * program at a time; use one per thread.
+     */
+    public Interpreter(PrintStream out, PrintStream err) {
+        this.globals = new Globals();
+        this.natives = new ConcurrentHashMap<>();
+        this.environment = globals;
+        this.out = new PrintWriter(out, true);
+        this.err = new PrintWriter(err, true);
+    }
+
+    // The interpreter of a task spawned by parent; only the environment it is running in is its own
+    Interpreter(Interpreter parent) {
+        this.test = parent.test;
+        this.globals = parent.globals;
+        this.natives = parent.natives;
+        this.modules = parent.modules;
+        this.budget = parent.budget;
+        this.heap = parent.heap;
+        this.memo = parent.memo;
+        this.profiler = parent.profiler != null ? parent.profiler.fork() : null;
+        this.environment = globals;
+        this.out = parent.out;
+        this.err = parent.err;
+    }
+
+    // Redirects output between runs; the script engine follows its context's writers this way
+    void output(PrintWriter out, PrintWriter err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Limits every later execute() call to a number of loop iterations and
+     * function calls, an amount of wall-clock time and an amount of retained
+     * memory in bytes. Zero means no limit.
+     */
+    public void limit(long maxSteps, long timeoutMillis, long maxMemory) {
+        this.maxSteps = maxSteps;
+        this.timeoutMillis = timeoutMillis;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Exposes static Java methods as Lox natives. Methods of the class
+     * marked @LoxNative become global functions. A class marked @LoxNative
+     * itself, or one with no marked methods, such as java.lang.Math,
+     * becomes a single global named after the class, with its public static
+     * methods as methods; of overloads with the same name, the one taking
+     * the widest numbers is used. Argument and result conversions and the
+     * choice of overload are those of NativeBinding.
+     */
+    public void bind(Class<?> type) {
+        NativeBinding.bind(this, type);
+    }
+
+    /**
+     * Stops the program this interpreter is executing with a runtime error.
+     * May be called from any thread.
+     */
+    public void cancel() {
+        ExecutionBudget budget = this.budget;
+        if (budget != null) budget.cancel();
+    }
+
+    /**
+     * Runs a compiled program in this interpreter's globals, so definitions
+     * from earlier programs are visible. Returns false if it stopped with a
+     * runtime error, which is written to the error stream.
+     */
+    public boolean execute(Program program) {
+        try {
+            run(program);
+            return true;
+        } catch (RuntimeError error) {
+            FlightEvents.runtimeError(error);
+            err.printf("%s\n[line %s]\n", error.getMessage(), error.token.line);
+            return false;
+        } finally {
+            // Tasks the program left running stop with it
+            budget.cancel();
+        }
+    }
+
+    /**
+     * Runs a compiled program and returns the value of its last statement
+     * if that is an expression statement, or null. Runtime errors are thrown.
+     * Tasks the program spawned are left running; cancel() stops them.
+     */
+    Object run(Program program) {
+        startRun();
 
-    Interpreter() {
-        globals.define("clock", new LoxCallable(){
-            @Override
-            public int arity() { return 0; }
+        List<Stmt> statements = program.statements;
+        int last = statements.size() - 1;
+        for (int i = 0; i < last; i++) {
+            execute(statements.get(i));
+        }
+        if (last < 0) return null;
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+        Stmt statement = statements.get(last);
+        if (statement instanceof Stmt.Expression) return evaluate(((Stmt.Expression)statement).expression);
+        execute(statement);
+        return null;
+    }
+
+    // Calls a function or class from host code, under the same limits as a program
+    Object invoke(LoxCallable callee, Object[] arguments, Token name) {
+        if (arguments.length != callee.arity()) {
+            throw new RuntimeError(name, "Expected " + callee.arity() + " arguments but got " + arguments.length + ".");
+        }
+        startRun();
+        return callee.call(this, arguments);
+    }
+
+    // Every run gets a budget, even without limits, so it can be cancelled
+    private void startRun() {
+        budget = new ExecutionBudget(maxSteps, timeoutMillis);
+        heap = maxMemory > 0 ? new HeapAccount(maxMemory) : null;
+    }
+
+    /**
+     * The global scope. Natives aren't built up front; each one is created
+     * and defined the first time a script looks up or assigns its name, so
+     * short scripts only pay for the natives they use.
+     */
+    private class Globals extends Environment {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        Object get(Token name) {
+            if (!bindings().containsKey(name.lexeme)) nativeFunction(name.lexeme);
+            return super.get(name);
+        }
+
+        @Override
+        void assign(Token name, Object value) {
+            if (!bindings().containsKey(name.lexeme)) nativeFunction(name.lexeme);
+            super.assign(name, value);
+        }
+    }
 
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
-        globals.define("getClass", new LoxCallable(){
-            @Override
-            public int arity() { return 1; }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Object arg = arguments.get(0);
-                if (arg instanceof LoxInstance && ! (arg instanceof LoxClass))
-                    return ((LoxInstance)arg).getLoxClass();
-
-                // TODO: Figure out how to throw a built-in error here, instead of returning null
-                // System.out.println("getLoxClass: argument must be an instance");
+    /**
+     * Returns the native function with this name, defining it as a global
+     * the first time it is asked for, or null if there is no such native.
+     */
+    LoxCallable nativeFunction(String name) {
+        LoxCallable function = natives.get(name);
+        if (function != null) return function;
+
+        function = createNative(name);
+        if (function != null) {
+            // Tasks may race to create the same native; every one of them gets the first
+            LoxCallable existing = natives.putIfAbsent(name, function);
+            if (existing != null) return existing;
+            globals.define(name, function);
+        }
+        return function;
+    }
+
+    private static LoxCallable createNative(String name) {
+        switch (name) {
+            case "clock":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 0; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        return (double)System.currentTimeMillis() / 1000.0;
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "memoryUsage":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 0; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        return (double)HeapAccount.measure(interpreter);
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "spawn":
+                return new LoxTask.Spawn();
+            case "join":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 1; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        Object task = arguments[0];
+                        if (!(task instanceof LoxTask)) throw new NativeError("join() takes a task.");
+                        return ((LoxTask)task).join(interpreter);
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "Channel":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 1; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        Object capacity = arguments[0];
+                        if (!(capacity instanceof Double) || (double)capacity < 1 || (double)capacity > Integer.MAX_VALUE
+                                || (double)capacity != Math.floor((double)capacity))
+                            throw new NativeError("Channel capacity must be a positive integer.");
+                        return new LoxChannel((int)(double)capacity);
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "List":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 0; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        if (interpreter.heap != null) interpreter.heap.charge(interpreter, LoxList.SIZE);
+                        return new LoxList();
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "Dict":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 0; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        LoxDict dict = new LoxDict();
+                        if (interpreter.heap != null) interpreter.heap.charge(interpreter, LoxDict.SIZE + dict.tableBytes());
+                        return dict;
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "pure":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 1; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        Object function = arguments[0];
+                        if (!(function instanceof LoxCallable)) throw new NativeError("pure() takes a function.");
+                        return new PureFunction((LoxCallable)function);
+                    }
+
+                    @Override
+                    public String toString() { return "<native fn>"; }
+                };
+            case "getClass":
+                return new LoxCallable(){
+                    @Override
+                    public int arity() { return 1; }
+
+                    @Override
+                    public Object call(Interpreter interpreter, Object[] arguments) {
+                        Object arg = arguments[0];
+                        if (arg instanceof LoxInstance && ! (arg instanceof LoxClass))
+                            return ((LoxInstance)arg).getLoxClass();
+
+                        // TODO: Figure out how to throw a built-in error here, instead of returning null
+                        // System.out.println("getLoxClass: argument must be an instance");
+                        return null;
+                    }
+
+                    @Override
+                    public boolean isPure() { return true; }
+
+                    // An instance's class never changes
+                    @Override
+                    public boolean isDeterministic() { return true; }
+                    
+                    @Override
+                    public String toString() { return "<nativ fn>"; }
+                };
+            default:
                 return null;
-            }
-            
-            @Override
-            public String toString() { return "<nativ fn>"; }
-        });
+        }
     }
 
     void interpret(List<Stmt> statements) {
+        FlightEvents.Phase event = FlightEvents.beginPhase("execute");
+        if (profiler != null) profiler.enter("<script>");
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
             Lox.runtimeError(error);
+        } finally {
+            if (profiler != null) profiler.exit();
+            FlightEvents.endPhase(event);
         }
     }
 
@@ -67,17 +369,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         switch (expr.operator.type) {
             case PLUS_EQUAL:
                 checkNumberOperands(expr.operator, environment.get(expr.name), value);
-                value = (double)targetVal + (double)value;
+                value = number((double)targetVal + (double)value);
                 break;
             case MINUS_EQUAL:
                 checkNumberOperands(expr.operator, environment.get(expr.name), value);
-                value = (double)targetVal - (double)value;
+                value = number((double)targetVal - (double)value);
                 break;
             default:
         }
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
+        int distance = expr.depth;
+        if (distance != Expr.GLOBAL) {
             environment.assignAt(distance, expr.name, value);
         } else {
             globals.assign(expr.name, value);
@@ -109,27 +411,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return (double)left <= (double)right;
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+                return number((double)left - (double)right);
             case PLUS:
                 if (left instanceof Double && right instanceof Double)
-                    return (double)left + (double)right;
+                    return number((double)left + (double)right);
 
                 if (test) {
                     if (left instanceof String && right instanceof String)
-                        return (String)left + (String)right;
+                        return string(expr.operator, (String)left + (String)right);
                     throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
                 } else {
                     if (left instanceof String || right instanceof String)
-                        return stringify(left) + stringify(right);
+                        return string(expr.operator, stringify(left) + stringify(right));
                     throw new RuntimeError(expr.operator, "One of the operands must be a string, or both numbers");
                 }
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
                 if ((double)right == 0) throw new RuntimeError(expr.operator, "Divide by zero");
-                return (double)left / (double)right;
+                return number((double)left / (double)right);
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                return number((double)left * (double)right);
             default:
         }
 
@@ -138,11 +440,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visit(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        if (expr.callee instanceof Expr.Get) {
+            // A method called on an instance runs with this bound, without making a bound method to call
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            LoxFunction method = object instanceof LoxInstance ? ((LoxInstance)object).method(get.name.lexeme) : null;
+            if (method != null) return call(expr, method, (LoxInstance)object);
+            return call(expr, property(object, get.name), null);
+        }
+        return call(expr, evaluate(expr.callee), null);
+    }
+
+    // Calls with up to three arguments pass them without putting them in an array
+    private Object call(Expr.Call expr, Object callee, LoxInstance self) {
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        Object a = null, b = null, c = null;
+        Object[] values = null;
+        if (count > 3) {
+            values = new Object[count];
+            for (int i = 0; i < count; i++) values[i] = evaluate(arguments.get(i));
+        } else {
+            if (count > 0) a = evaluate(arguments.get(0));
+            if (count > 1) b = evaluate(arguments.get(1));
+            if (count > 2) c = evaluate(arguments.get(2));
         }
 
         if (!(callee instanceof LoxCallable)) {
@@ -151,11 +472,37 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         LoxCallable function = (LoxCallable)callee;
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        if (count != function.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + count + ".");
         }
 
-        return function.call(this, arguments);
+        if (heap != null && callee instanceof LoxClass) heap.charge(this, expr.paren, HeapAccount.INSTANCE);
+        try {
+            if (memo != null && self == null && function instanceof LoxFunction && memo.isMemoizable((LoxFunction)function)) {
+                return memo.call(this, (LoxFunction)function, values != null ? values : Memoizer.arguments(count, a, b, c));
+            }
+            if (self != null) {
+                LoxFunction method = (LoxFunction)function;
+                switch (count) {
+                    case 0: return method.invoke0(this, self);
+                    case 1: return method.invoke1(this, self, a);
+                    case 2: return method.invoke2(this, self, a, b);
+                    case 3: return method.invoke3(this, self, a, b, c);
+                    default: return method.invoke(this, self, values);
+                }
+            }
+            // So a task that fails without a token of its own reports it here
+            if (function instanceof LoxTask.Spawn) return LoxTask.spawn(this, a, expr.paren);
+            switch (count) {
+                case 0: return function.call0(this);
+                case 1: return function.call1(this, a);
+                case 2: return function.call2(this, a, b);
+                case 3: return function.call3(this, a, b, c);
+                default: return function.call(this, values);
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
     }
 
     @Override
@@ -165,12 +512,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visit(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return property(evaluate(expr.object), expr.name);
+    }
+
+    private Object property(Object object, Token name) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance)object).get(expr.name);
+            return ((LoxInstance)object).get(name);
+        }
+        if (object instanceof NativeInstance) {
+            return ((NativeInstance)object).get(name);
         }
 
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        throw new RuntimeError(name, "Only instances have properties.");
     }
 
     @Override
@@ -199,13 +552,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
+        // Overwriting a field is charged as well; the account only uses charges to decide when to measure
+        if (heap != null) heap.charge(this, expr.name, HeapAccount.BINDING);
         ((LoxInstance)object).set(expr.name, value);
         return value;
     }
 
     @Override
     public Object visit(Expr.Super expr) {
-        int distance = locals.get(expr);
+        int distance = expr.depth;
         LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
         LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
 
@@ -236,7 +591,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return !isTruthy(right);
             case MINUS:
                 checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return number(-(double)right);
             default:
         }
 
@@ -261,6 +616,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visit(Stmt.Class stmt) {
+        FlightEvents.ClassDefinition event = FlightEvents.beginClass();
         environment.define(stmt.name.lexeme, null);
 
         Object superclass = null;
@@ -298,10 +654,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         // Call static class initializer, if available
         LoxFunction initializer = metaclass.findMethod("init");
         if (initializer != null) {
-            initializer.bind(loxClass).call(this, null);
+            initializer.invoke0(this, loxClass);
         }
 
         environment.assign(stmt.name, loxClass);
+
+        FlightEvents.endClass(event, stmt, (LoxClass)superclass);
         return null;
     }
 
@@ -313,6 +671,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visit(Stmt.Function stmt) {
+        if (heap != null) heap.charge(this, stmt.name, HeapAccount.FUNCTION);
         LoxFunction function = new LoxFunction(stmt, environment, false);
         environment.define(stmt.name.lexeme, function);
         return null;
@@ -328,11 +687,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visit(Stmt.Import stmt) {
+        if (modules == null)
+            throw new RuntimeError(stmt.keyword, "Can't import modules here.");
+        modules.execute(this, stmt);
+        return null;
+    }
+
     @Override
     public Void visit(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         //Swtiched to printf so that % flags are supported, icluding %n for newline
-        System.out.printf(stringify(value) + "\n");
+        out.printf(stringify(value) + "\n");
         return null;
     }
 
@@ -357,8 +724,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     
     @Override
     public Void visit(Stmt.While stmt) {
+        ExecutionBudget budget = this.budget;
         try {
             while (isTruthy(evaluate(stmt.condition))) {
+                if (budget != null) budget.tick(stmt.keyword);
                 execute(stmt.body);
             }
         } catch (BreakException e) {
@@ -377,7 +746,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         
@@ -395,7 +764,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -410,32 +779,54 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private Object evaluate(Expr expr) {
+        if (ExecutionStats.enabled) ExecutionStats.node(expr);
         return expr.accept(this);
     }
 
     private Void execute(Stmt stmt) {
+        if (ExecutionStats.enabled) ExecutionStats.node(stmt);
+        if (stmt.probe != null) stmt.probe.hit();
         return stmt.accept(this);
     }
 
+    // Every arithmetic result is boxed on its way out; this is where they're counted
+    private Object number(double value) {
+        if (ExecutionStats.enabled) ExecutionStats.boxedDouble();
+        return value;
+    }
+
+    // Strings made by '+' are charged to the heap account, if there is one
+    private Object string(Token operator, String value) {
+        if (heap != null) heap.charge(this, operator, HeapAccount.string(value));
+        return value;
+    }
+
     public void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment prev = this.environment;
+        if (depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+        frames[depth++] = this.environment;
         try {
             this.environment = environment;
             for(Stmt statement : statements) {
                 execute(statement);
             }
         } finally {
-            this.environment = prev;
+            this.environment = frames[--depth];
+            frames[depth] = null;
         }
     }
-    
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
 
+    // The globals, the current environment and those of the blocks and calls it was entered from
+    List<Environment> activeEnvironments() {
+        List<Environment> environments = new ArrayList<>(depth + 2);
+        environments.add(globals);
+        environments.add(environment);
+        environments.addAll(Arrays.asList(frames).subList(0, depth));
+        return environments;
+    }
+    
     private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
+        int distance = expr.depth;
+        if (distance != Expr.GLOBAL) {
             return environment.getAt(distance, name.lexeme);
         } else {
             return globals.get(name);
@@ -4,64 +4,422 @@ import java.io.Console;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import javax.management.JMException;
 
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
 
 	static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    static boolean hadWarning = false;
+
+    // Keep resolved programs in the compact FlatAst encoding
+    private static boolean flatAst = false;
+
+    // Compiled scripts are cached on disk unless --no-cache is given
+    private static ProgramCache cache = null;
+
+    private static ModuleLoader modules = null;
+
+    // Phase timings for --timings, or null when not asked for
+    private static PhaseTimer timer = null;
+
+    // Sampling profiler for --profile, and where its collapsed stacks go
+    private static Profiler profiler = null;
+    private static Path profileOutput = null;
+
+    // Print the execution counters at exit
+    private static boolean stats = false;
+
+    // Result cache for --memoize
+    private static Memoizer memo = null;
+
+    // Line coverage for --coverage, and where the LCOV report goes
+    static Coverage coverage = null;
+    private static Path coverageOutput = null;
+
+    // Limits from --max-steps, --timeout and --max-memory; zero means none
+    private static long maxSteps = 0;
+    private static long timeoutMillis = 0;
+    private static long maxMemory = 0;
+
+    /**
+     * Errors and warnings from a module compiled on a worker thread. They are
+     * collected instead of printed and replayed in import order, so output
+     * doesn't depend on scheduling.
+     */
+    static class Diagnostics {
+        private final StringBuilder messages = new StringBuilder();
+        boolean hadError = false;
+        boolean hadWarning = false;
+        // Where the first error was, or -1
+        int firstErrorLine = -1;
+
+        String messages() {
+            return messages.toString();
+        }
+    }
+
+    private static final ThreadLocal<Diagnostics> captured = new ThreadLocal<>();
 
 	public static void main(String[] args) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: java Lox [script]");
-			System.exit(64); 
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		String script = null;
+		boolean useCache = true;
+		boolean clearCache = false;
+		Path cacheDirectory = ProgramCache.defaultDirectory();
+		Path saveImage = null;
+		Path restoreImage = null;
+		long profileInterval = 10000;
+		boolean jmx = false;
+		String serve = null;
+		int workers = Runtime.getRuntime().availableProcessors();
+		long warmup = 2000;
+		List<String> nativeClasses = new ArrayList<>();
+
+		for (String arg : args) {
+			if (arg.equals("--timings")) {
+				timer = new PhaseTimer();
+			} else if (arg.equals("--profile")) {
+				profileOutput = Paths.get("profile.collapsed");
+			} else if (arg.startsWith("--profile=")) {
+				profileOutput = Paths.get(arg.substring("--profile=".length()));
+			} else if (arg.startsWith("--profile-interval=")) {
+				profileInterval = Long.parseLong(arg.substring("--profile-interval=".length()));
+			} else if (arg.equals("--coverage")) {
+				coverageOutput = Paths.get("lcov.info");
+			} else if (arg.startsWith("--coverage=")) {
+				coverageOutput = Paths.get(arg.substring("--coverage=".length()));
+			} else if (arg.startsWith("--max-steps=")) {
+				maxSteps = Long.parseLong(arg.substring("--max-steps=".length()));
+			} else if (arg.startsWith("--timeout=")) {
+				timeoutMillis = Long.parseLong(arg.substring("--timeout=".length()));
+			} else if (arg.startsWith("--max-memory=")) {
+				maxMemory = parseSize(arg.substring("--max-memory=".length()));
+			} else if (arg.equals("--serve")) {
+				serve = ScriptServer.defaultSocket().toString();
+			} else if (arg.startsWith("--serve=")) {
+				serve = arg.substring("--serve=".length());
+			} else if (arg.startsWith("--workers=")) {
+				workers = Integer.parseInt(arg.substring("--workers=".length()));
+			} else if (arg.startsWith("--warmup=")) {
+				warmup = Long.parseLong(arg.substring("--warmup=".length()));
+			} else if (arg.startsWith("--native=")) {
+				nativeClasses.addAll(Arrays.asList(arg.substring("--native=".length()).split(",")));
+			} else if (arg.equals("--memoize")) {
+				memo = new Memoizer(10000);
+			} else if (arg.startsWith("--memoize=")) {
+				memo = new Memoizer(Integer.parseInt(arg.substring("--memoize=".length())));
+			} else if (arg.equals("--stats")) {
+				stats = true;
+				ExecutionStats.enabled = true;
+			} else if (arg.equals("--jmx")) {
+				jmx = true;
+			} else if (arg.equals("--flat-ast")) {
+				flatAst = true;
+			} else if (arg.equals("--no-cache")) {
+				useCache = false;
+			} else if (arg.equals("--clear-cache")) {
+				clearCache = true;
+			} else if (arg.startsWith("--cache-dir=")) {
+				cacheDirectory = Paths.get(arg.substring("--cache-dir=".length()));
+			} else if (arg.startsWith("--snapshot=")) {
+				saveImage = Paths.get(arg.substring("--snapshot=".length()));
+			} else if (arg.startsWith("--restore=")) {
+				restoreImage = Paths.get(arg.substring("--restore=".length()));
+			} else if (arg.startsWith("--") || script != null) {
+				usage();
+			} else {
+				script = arg;
+			}
+		}
+
+		if (clearCache) {
+			new ProgramCache(cacheDirectory).clear();
+			if (script == null) return;
+		}
+
+		if (serve != null) {
+			if (script != null) usage();
+			new ScriptServer(ScriptServer.address(serve), workers, warmup, maxSteps, timeoutMillis, maxMemory).serve();
+			return;
+		}
+
+		// Probes live on the statement objects, which cached and flat programs don't keep
+		if (coverageOutput != null) {
+			coverage = new Coverage();
+			useCache = false;
+			flatAst = false;
+		}
+
+		if (useCache) cache = new ProgramCache(cacheDirectory);
+		interpreter.memo = memo;
+
+		// Before restoring, so an image can refer to the bound functions
+		for (String name : nativeClasses) {
+			try {
+				interpreter.bind(Class.forName(name));
+			} catch (ClassNotFoundException | IllegalArgumentException e) {
+				System.err.printf("Could not bind native class '%s': %s\n", name, e.getMessage());
+				System.exit(64);
+			}
+		}
+		lap("init");
+
+		if (restoreImage != null) {
+			try {
+				HeapImage.restore(interpreter, restoreImage);
+			} catch (IOException e) {
+				System.err.printf("Could not restore heap image '%s': %s\n", restoreImage, e.getMessage());
+				System.exit(74);
+			}
+			lap("restore");
+		}
+
+		if (jmx) {
+			try {
+				ExecutionStats.register();
+			} catch (JMException e) {
+				System.err.println("Could not register the statistics MBean: " + e.getMessage());
+			}
+		}
+
+		if (profileOutput != null) {
+			profiler = new Profiler(profileInterval);
+			interpreter.profiler = profiler.stack();
+			profiler.start();
+		}
+
+		if (script != null) {
+			startLimits();
+			runFile(script);
 		} else {
 			runPrompt();
 		}
+
+		// Only reached when the script ran without errors
+		if (saveImage != null) {
+			HeapImage.save(interpreter, saveImage);
+			lap("snapshot");
+		}
+		finish();
+	}
+
+	// Reports --profile, --coverage, --stats and --timings results, including for runs that failed
+	private static void finish() throws IOException {
+		if (profiler != null) {
+			profiler.stop();
+			profiler.writeCollapsed(profileOutput);
+			profiler.report();
+		}
+		if (coverage != null) coverage.write(coverageOutput);
+		if (memo != null) memo.report();
+		if (stats) ExecutionStats.dump();
+		if (timer != null) timer.report();
+	}
+
+	// Each script, or each line at the prompt, gets a fresh budget and heap account
+	private static void startLimits() {
+		if (maxSteps > 0 || timeoutMillis > 0) {
+			interpreter.budget = new ExecutionBudget(maxSteps, timeoutMillis);
+		}
+		if (maxMemory > 0) interpreter.heap = new HeapAccount(maxMemory);
+	}
+
+	// A byte count with an optional k, m or g suffix, as in -Xmx
+	private static long parseSize(String size) {
+		long unit = 1;
+		switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+			case 'k': unit = 1L << 10; break;
+			case 'm': unit = 1L << 20; break;
+			case 'g': unit = 1L << 30; break;
+			default:
+		}
+		if (unit != 1) size = size.substring(0, size.length() - 1);
+		return Long.parseLong(size) * unit;
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java Lox [options] [script]");
+		System.out.println("  --flat-ast         keep resolved programs in the compact encoding");
+		System.out.println("  --no-cache         don't read or write the compiled-program cache");
+		System.out.println("  --clear-cache      delete all cached programs");
+		System.out.println("  --cache-dir=<dir>  cache location (default ~/.cache/jlox)");
+		System.out.println("  --snapshot=<file>  save the global state to a heap image after running");
+		System.out.println("  --restore=<file>   start from a heap image saved with --snapshot");
+		System.out.println("  --coverage[=<file>] write an LCOV line coverage report (default lcov.info); implies --no-cache");
+		System.out.println("  --max-steps=<n>    stop the script after n loop iterations and function calls");
+		System.out.println("  --timeout=<ms>     stop the script after this much wall-clock time");
+		System.out.println("  --max-memory=<size> stop the script when its values retain more than this (k, m or g suffix)");
+		System.out.println("  --serve[=<socket>|<port>] run scripts sent by bin/jloxc (default socket ~/.cache/jlox/jlox.sock)");
+		System.out.println("  --workers=<n>      scripts the server runs at once (default: one per CPU)");
+		System.out.println("  --warmup=<ms>      how long the server warms up before running jobs (default 2000)");
+		System.out.println("  --native=<class>[,<class>...] expose static Java methods to the script (see LoxNative)");
+		System.out.println("  --memoize[=<n>]    cache up to n results of functions that depend only on their arguments (default 10000)");
+		System.out.println("  --stats            count node executions and allocations; print them at exit");
+		System.out.println("  --jmx              expose the counters as the jlox:type=ExecutionStats MBean");
+		System.out.println("  --timings          print how long each phase of the run took");
+		System.out.println("  --profile[=<file>] sample Lox call stacks; write collapsed stacks (default profile.collapsed)");
+		System.out.println("  --profile-interval=<us>  time between profiler samples (default 10000)");
+		System.exit(64);
 	}
 
 	private static void runFile(String path) throws IOException {
-	    byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+	    Path script = Paths.get(path);
+	    modules = new ModuleLoader(script.toAbsolutePath().getParent(), cache);
+	    modules.markInitialized(script);
+	    interpreter.modules = modules;
+
+	    byte[] bytes = Files.readAllBytes(script);
+		String source = new String(bytes, Charset.defaultCharset());
+		lap("read");
+		if (cache != null) {
+			runCached(source);
+		} else {
+			run(source, script);
+		}
+		if (hadError || hadRuntimeError) finish();
 		if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
 	}
 
 	private static void runPrompt() throws IOException {
         Console cons = System.console();
+        modules = new ModuleLoader(Paths.get(""), cache);
+        interpreter.modules = modules;
 
 		for (;;) {
 			System.out.print("> ");
 			String line = cons.readLine();
 			if (line == null) break;
-			run(line);
+			startLimits();
+			run(line, null);
 			hadError = false;
 		}
 
         System.out.println();
 	}
 
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+	private static void run(String source, Path path) {
+        if (flatAst) {
+            FlatAst program = compile(source);
+            if (program == null) return;
+            if (!modules.preload(program.imports())) return;
+            lap("modules");
+            interpreter.interpret(program.statements());
+            lap("execute");
+            return;
+        }
 
+        List<Stmt> statements = parse(source, path);
 		if (hadError) return;
 
-        Resolver resolver = new Resolver(interpreter);
+        FlightEvents.Phase event = FlightEvents.beginPhase("resolve");
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
+        FlightEvents.endPhase(event);
+        lap("resolve");
 
         if (hadError) return;
+        if (!modules.preload(ModuleLoader.imports(statements))) return;
+        lap("modules");
 
         //System.out.println(new AstPrinter().print(expression));
         interpreter.interpret(statements);
+        lap("execute");
 	}
 
+    // Skips the front end entirely when the same source has been compiled before
+    private static void runCached(String source) {
+        FlatAst program = cache.load(source);
+        lap("cache");
+        if (program == null) {
+            program = compile(source);
+            if (program == null) return;
+
+            // Warnings are only reported by the front end, so keep compiling those
+            if (!hadWarning) cache.store(source, program);
+            lap("cache");
+        }
+
+        if (!modules.preload(program.imports())) return;
+        lap("modules");
+        interpreter.interpret(program.statements());
+        lap("execute");
+    }
+
+    // The path is only used for coverage and may be null
+    private static List<Stmt> parse(String source, Path path) {
+        FlightEvents.Phase event = FlightEvents.beginPhase("scan");
+		Scanner scanner = new Scanner(source);
+		TokenBuffer tokens = scanner.scanBuffer();
+		FlightEvents.endPhase(event);
+		lap("scan");
+
+        Coverage.File file = null;
+        if (coverage != null && path != null) file = coverage.file(path, tokens.line(tokens.size() - 1));
+
+        event = FlightEvents.beginPhase("parse");
+        Parser parser = new Parser(tokens, file);
+        List<Stmt> statements = parser.parse();
+        FlightEvents.endPhase(event);
+        lap("parse");
+        return statements;
+    }
+
+    static FlatAst compile(String source) {
+        List<Stmt> statements = compile(source, null);
+        if (statements == null) return null;
+
+        FlatAst program = FlatAst.encode(statements);
+        lap("encode");
+        return program;
+    }
+
+    // Parses and resolves, returning null if there were errors
+    static List<Stmt> compile(String source, Path path) {
+        List<Stmt> statements = parse(source, path);
+        if (failed()) return null;
+
+        FlightEvents.Phase event = FlightEvents.beginPhase("resolve");
+        new Resolver().resolve(statements);
+        FlightEvents.endPhase(event);
+        lap("resolve");
+        if (failed()) return null;
+
+        return statements;
+    }
+
+    // Module compiles on pool threads aren't timed; waiting for them counts as "modules"
+    private static void lap(String phase) {
+        if (timer != null && captured.get() == null) timer.lap(phase);
+    }
+
+    // Redirects diagnostics of the current thread into the given sink, or back to stderr if null
+    static void capture(Diagnostics diagnostics) {
+        if (diagnostics == null) {
+            captured.remove();
+        } else {
+            captured.set(diagnostics);
+        }
+    }
+
+    static void replay(String module, Diagnostics diagnostics) {
+        if (diagnostics.messages.length() == 0) return;
+        System.err.printf("In module '%s':\n", module);
+        System.err.print(diagnostics.messages);
+        if (diagnostics.hadError) hadError = true;
+    }
+
+    private static boolean failed() {
+        Diagnostics diagnostics = captured.get();
+        return diagnostics != null ? diagnostics.hadError : hadError;
+    }
+
 	static void error(int line, String message) {
 		report(line, "", message);
 	}
@@ -74,17 +432,44 @@ public class Lox {
         }
     }
 
+    static void error(TokenBuffer tokens, int index, String message) {
+        if (tokens.type(index) == TokenType.EOF) {
+            report(tokens.line(index), " at end", message);
+        } else {
+            report(tokens.line(index), " at '" + tokens.lexeme(index) + "'", message);
+        }
+    }
+
     static void warning(Token token, String message) {
-        System.err.printf("[line %s] Warning at '%s': %s\n", token.line, token.lexeme, message);
+        String text = String.format("[line %s] Warning at '%s': %s\n", token.line, token.lexeme, message);
+        Diagnostics diagnostics = captured.get();
+        if (diagnostics != null) {
+            diagnostics.messages.append(text);
+            diagnostics.hadWarning = true;
+            return;
+        }
+
+        System.err.print(text);
+        hadWarning = true;
     }
 
     static void runtimeError(RuntimeError error) {
+        FlightEvents.runtimeError(error);
         System.err.printf("%s\n[line %s]\n", error.getMessage(), error.token.line);
         hadRuntimeError = true;
     }
 
 	private static void report(int line, String where, String message) {
-		System.err.printf("[line %s] Error%s: %s\n", line, where, message);
+		String text = String.format("[line %s] Error%s: %s\n", line, where, message);
+		Diagnostics diagnostics = captured.get();
+		if (diagnostics != null) {
+			diagnostics.messages.append(text);
+			if (!diagnostics.hadError) diagnostics.firstErrorLine = line;
+			diagnostics.hadError = true;
+			return;
+		}
+
+		System.err.print(text);
 		hadError = true;
 	}
 }
@@ -0,0 +1,84 @@
+package jlox;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import javax.script.Bindings;
+
+/**
+ * Script engine bindings that are the Lox globals of an interpreter.
+ *
+ * Putting a value defines a global, and globals a script defines can be
+ * read back, functions and classes included, without copying anything
+ * between runs. Numbers are stored as doubles, the only numbers Lox has,
+ * and null as nil.
+ */
+class LoxBindings extends AbstractMap<String, Object> implements Bindings {
+    final Interpreter interpreter = new Interpreter();
+    private final Map<String, Object> globals = interpreter.globals.bindings();
+
+    @Override
+    public Object put(String name, Object value) {
+        check(name);
+        return Nil.unwrap(globals.put(name, Nil.wrap(LoxScriptEngine.toLox(value))));
+    }
+
+    @Override
+    public Object get(Object name) {
+        check(name);
+        return Nil.unwrap(globals.get(name));
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        check(name);
+        return globals.containsKey(name);
+    }
+
+    @Override
+    public Object remove(Object name) {
+        check(name);
+        return Nil.unwrap(globals.remove(name));
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                Iterator<Map.Entry<String, Object>> entries = globals.entrySet().iterator();
+                return new Iterator<Map.Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        Map.Entry<String, Object> entry = entries.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), Nil.unwrap(entry.getValue()));
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return globals.size();
+            }
+        };
+    }
+
+    // Bindings rejects null and empty names
+    private static void check(Object name) {
+        if (name == null) throw new NullPointerException("name is null");
+        if (!(name instanceof String)) throw new ClassCastException("name is not a string");
+        if (((String)name).isEmpty()) throw new IllegalArgumentException("name is empty");
+    }
+}
@@ -1,8 +1,43 @@
 package jlox;
 
-import java.util.List;
-
+/**
+ * Something a script can call. The interpreter has already checked that
+ * the number of arguments matches arity().
+ *
+ * Calls with up to three arguments go through call0 to call3, which take
+ * the arguments as they are, so a call needn't allocate anything to pass
+ * them. The defaults put them in an array for call(); callables override
+ * the ones they can answer without it.
+ */
 interface LoxCallable {
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] {a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] {a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] {a, b, c});
+    }
+
+    // Whether calls have no effect outside themselves, so they may run in parallel; see Purity
+    default boolean isPure() {
+        return false;
+    }
+
+    // Whether it is also pure in returning the same result for the same arguments, so --memoize may cache it
+    default boolean isDeterministic() {
+        return false;
+    }
 }
@@ -0,0 +1,100 @@
+package jlox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded channel between tasks, made with Channel(capacity).
+ *
+ *   send(value)  waits while the channel is full, then adds the value
+ *   receive()    waits while the channel is empty, then takes the oldest value;
+ *                returns nil once the channel is closed and drained
+ *   close()      wakes every waiter; sending afterwards is an error
+ *
+ * A send happens before the receive that takes its value, so whatever the
+ * sender wrote to shared variables and fields before sending is visible to
+ * the receiver afterwards.
+ */
+class LoxChannel extends NativeInstance {
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    LoxChannel(int capacity) {
+        buffer = new Object[capacity];
+    }
+
+    @Override
+    int arity(String method) {
+        switch (method) {
+            case "send": return 1;
+            case "receive": return 0;
+            case "close": return 0;
+            default: return -1;
+        }
+    }
+
+    @Override
+    Object call(Interpreter interpreter, String method, Object[] arguments) {
+        switch (method) {
+            case "send":
+                send(interpreter, arguments[0]);
+                return null;
+            case "receive":
+                return receive(interpreter);
+            default:
+                close();
+                return null;
+        }
+    }
+
+    void send(Interpreter interpreter, Object value) {
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) ExecutionBudget.await(interpreter.budget, notFull);
+            if (closed) throw new NativeError("Can't send on a closed channel.");
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive(Interpreter interpreter) {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) ExecutionBudget.await(interpreter.budget, notEmpty);
+            if (count == 0) return null;
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
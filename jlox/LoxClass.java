@@ -1,18 +1,29 @@
 package jlox;
 
-import java.util.List;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
+    private static final long serialVersionUID = 1L;
+
     final String name;
     final LoxClass superclass;
     private final Map<String, LoxFunction> methods;
 
+    // Looked up once; a class's methods don't change after it is declared
+    private final LoxFunction initializer;
+    private final int arity;
+
     LoxClass(LoxClass metaClass, LoxClass superclass, String name, Map<String, LoxFunction> methods) {
         super(metaClass);
         this.superclass = superclass;
         this.name = name;
         this.methods = methods;
+        this.initializer = findMethod("init");
+        this.arity = initializer != null ? initializer.arity() : 0;
+    }
+
+    Map<String, LoxFunction> methods() {
+        return methods;
     }
 
     LoxFunction findMethod(String name) {
@@ -30,21 +41,49 @@ public class LoxClass extends LoxInstance implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
-        if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
-        }
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        LoxInstance instance = instantiate();
+        if (initializer != null) initializer.invoke(interpreter, instance, arguments);
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = instantiate();
+        if (initializer != null) initializer.invoke0(interpreter, instance);
         return instance;
     }
 
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = instantiate();
+        if (initializer != null) initializer.invoke1(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = instantiate();
+        if (initializer != null) initializer.invoke2(interpreter, instance, a, b);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = instantiate();
+        if (initializer != null) initializer.invoke3(interpreter, instance, a, b, c);
+        return instance;
+    }
+
+    private LoxInstance instantiate() {
+        if (ExecutionStats.enabled) ExecutionStats.instance();
+        return new LoxInstance(this);
+    }
+
     @Override
     public String toString() {
         return name;
@@ -0,0 +1,305 @@
+package jlox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hash table from Lox values to Lox values, made with Dict().
+ *
+ *   get(key)         the value stored under key, or nil
+ *   set(key, value)  stores a value; keys may be anything but nil
+ *   has(key)         whether key is present
+ *   delete(key)      removes key, returning whether it was present
+ *   size()           the number of keys
+ *   keys(), values() Lists of the keys and of the values, in the same order
+ *
+ * Keys match when == says they are equal: numbers and strings by value,
+ * instances by identity.
+ *
+ * The table uses open addressing with linear probing and tombstones, as
+ * clox/table.c does. It picks its layout from what it holds. While every
+ * key is a number the keys live unboxed in a double[], and likewise the
+ * values; the first key or value of another type moves that side to an
+ * Object[] for good. Object keys keep their hash next to them, so probing
+ * past other keys rarely calls equals(). A table of numbers to numbers
+ * takes 17 bytes a slot, against about 70 an entry for a HashMap of boxed
+ * doubles.
+ *
+ * Each method holds the dict's lock, so tasks may share a dict.
+ */
+class LoxDict extends NativeInstance implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_CAPACITY = 8;
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte TOMBSTONE = 2;
+
+    // The dict object and the headers of its four arrays
+    static final long SIZE = 48 + 4 * 16;
+
+    // One per slot; the capacity is a power of two
+    private byte[] states = new byte[MIN_CAPACITY];
+
+    // Exactly one of each pair is in use
+    private double[] numberKeys = new double[MIN_CAPACITY];
+    private Object[] keys = null;
+    private int[] hashes = null;
+    private double[] numberValues = new double[MIN_CAPACITY];
+    private Object[] values = null;
+
+    // Keys present, and slots that are full or tombstones
+    private int count = 0;
+    private int used = 0;
+
+    @Override
+    int arity(String method) {
+        switch (method) {
+            case "get": return 1;
+            case "set": return 2;
+            case "has": return 1;
+            case "delete": return 1;
+            case "size": return 0;
+            case "keys": return 0;
+            case "values": return 0;
+            default: return -1;
+        }
+    }
+
+    @Override
+    Object call(Interpreter interpreter, String method, Object[] arguments) {
+        switch (method) {
+            case "get":
+                return get(arguments[0]);
+            case "set":
+                set(interpreter, arguments[0], arguments[1]);
+                return null;
+            case "has":
+                return has(arguments[0]);
+            case "delete":
+                return delete(arguments[0]);
+            case "size":
+                return (double)size();
+            case "keys":
+                return keys();
+            default:
+                return values();
+        }
+    }
+
+    synchronized Object get(Object key) {
+        int slot = key == null ? -1 : find(key, hash(key));
+        return slot >= 0 ? value(slot) : null;
+    }
+
+    synchronized boolean has(Object key) {
+        return key != null && find(key, hash(key)) >= 0;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized void set(Interpreter interpreter, Object key, Object value) {
+        if (key == null) throw new NativeError("Dict keys can't be nil.");
+        if (numberKeys != null && !(key instanceof Double)) generalizeKeys();
+        if (numberValues != null && !(value instanceof Double)) generalizeValues();
+
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot < 0) {
+            if (used + 1 > states.length / 4 * 3) {
+                resize(interpreter);
+                slot = find(key, hash);
+            }
+            slot = -1 - slot;
+            if (states[slot] == EMPTY) used++;
+            states[slot] = FULL;
+            count++;
+            if (numberKeys != null) {
+                numberKeys[slot] = (double)key;
+            } else {
+                keys[slot] = key;
+                hashes[slot] = hash;
+            }
+        }
+
+        if (numberValues != null) {
+            numberValues[slot] = (double)value;
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    synchronized boolean delete(Object key) {
+        int slot = key == null ? -1 : find(key, hash(key));
+        if (slot < 0) return false;
+
+        // Probes for other keys have to go on past this slot
+        states[slot] = TOMBSTONE;
+        if (keys != null) keys[slot] = null;
+        if (values != null) values[slot] = null;
+        count--;
+        return true;
+    }
+
+    synchronized LoxList keys() {
+        List<Object> result = new ArrayList<>(count);
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] == FULL) result.add(numberKeys != null ? (Object)numberKeys[slot] : keys[slot]);
+        }
+        return new LoxList(result);
+    }
+
+    synchronized LoxList values() {
+        List<Object> result = new ArrayList<>(count);
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] == FULL) result.add(value(slot));
+        }
+        return new LoxList(result);
+    }
+
+    // The bytes in the table's arrays, for HeapAccount
+    synchronized long tableBytes() {
+        return states.length * (1L + (numberKeys != null ? 8 : 4 + 4) + (numberValues != null ? 8 : 4));
+    }
+
+    // Keys and values that aren't stored unboxed, for HeapAccount
+    synchronized List<Object> references() {
+        List<Object> result = new ArrayList<>();
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] != FULL) continue;
+            if (keys != null) result.add(keys[slot]);
+            if (values != null) result.add(values[slot]);
+        }
+        return result;
+    }
+
+    private Object value(int slot) {
+        return numberValues != null ? (Object)numberValues[slot] : values[slot];
+    }
+
+    // The slot holding key, or -1 - the slot to insert it at
+    private int find(Object key, int hash) {
+        int mask = states.length - 1;
+        int tombstone = -1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte state = states[slot];
+            if (state == EMPTY) return -1 - (tombstone >= 0 ? tombstone : slot);
+            if (state == TOMBSTONE) {
+                if (tombstone < 0) tombstone = slot;
+            } else if (matches(slot, key, hash)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean matches(int slot, Object key, int hash) {
+        if (numberKeys != null) {
+            // Comparing bits is what Double.equals does, and what == does for numbers
+            return key instanceof Double
+                && Double.doubleToLongBits(numberKeys[slot]) == Double.doubleToLongBits((double)key);
+        }
+        return hashes[slot] == hash && keys[slot].equals(key);
+    }
+
+    // The same for a number whether the keys are stored unboxed or not
+    private static int hash(Object key) {
+        long bits = key instanceof Double ? Double.doubleToLongBits((double)key) : key.hashCode();
+        // The finalizer of MurmurHash3: whole numbers differ only in their high bits
+        bits ^= bits >>> 33;
+        bits *= 0xff51afd7ed558ccdL;
+        bits ^= bits >>> 33;
+        bits *= 0xc4ceb9fe1a85ec53L;
+        bits ^= bits >>> 33;
+        return (int)bits;
+    }
+
+    private void generalizeKeys() {
+        keys = new Object[states.length];
+        hashes = new int[states.length];
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] != FULL) continue;
+            keys[slot] = numberKeys[slot];
+            hashes[slot] = hash(keys[slot]);
+        }
+        numberKeys = null;
+    }
+
+    private void generalizeValues() {
+        values = new Object[states.length];
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] == FULL) values[slot] = numberValues[slot];
+        }
+        numberValues = null;
+    }
+
+    // Rebuilds the table, dropping tombstones, with room to grow
+    private void resize(Interpreter interpreter) {
+        int capacity = MIN_CAPACITY;
+        while (count + 1 > capacity / 4 * 3) {
+            if (capacity == 1 << 30) throw new NativeError("Dict is too large.");
+            capacity <<= 1;
+        }
+
+        byte[] oldStates = states;
+        double[] oldNumberKeys = numberKeys;
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        double[] oldNumberValues = numberValues;
+        Object[] oldValues = values;
+
+        states = new byte[capacity];
+        if (oldNumberKeys != null) {
+            numberKeys = new double[capacity];
+        } else {
+            keys = new Object[capacity];
+            hashes = new int[capacity];
+        }
+        if (oldNumberValues != null) {
+            numberValues = new double[capacity];
+        } else {
+            values = new Object[capacity];
+        }
+        if (interpreter.heap != null) interpreter.heap.charge(interpreter, tableBytes());
+
+        int mask = capacity - 1;
+        for (int old = 0; old < oldStates.length; old++) {
+            if (oldStates[old] != FULL) continue;
+            int hash = oldNumberKeys != null ? hash(oldNumberKeys[old]) : oldHashes[old];
+            int slot = hash & mask;
+            while (states[slot] != EMPTY) slot = (slot + 1) & mask;
+
+            states[slot] = FULL;
+            if (oldNumberKeys != null) {
+                numberKeys[slot] = oldNumberKeys[old];
+            } else {
+                keys[slot] = oldKeys[old];
+                hashes[slot] = hash;
+            }
+            if (oldNumberValues != null) {
+                numberValues[slot] = oldNumberValues[old];
+            } else {
+                values[slot] = oldValues[old];
+            }
+        }
+        used = count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("{");
+        boolean first = true;
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] != FULL) continue;
+            if (!first) text.append(", ");
+            first = false;
+            Object key = numberKeys != null ? (Object)numberKeys[slot] : keys[slot];
+            Object value = value(slot);
+            text.append(key == this ? "{...}" : Interpreter.stringify(key)).append(": ")
+                .append(value == this ? "{...}" : Interpreter.stringify(value));
+        }
+        return text.append("}").toString();
+    }
+}
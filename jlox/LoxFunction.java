@@ -1,8 +1,10 @@
 package jlox;
 
-import java.util.List;
+import java.io.Serializable;
+
+public class LoxFunction implements LoxCallable, Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
 
@@ -14,32 +16,130 @@ public class LoxFunction implements LoxCallable {
         this.closure = closure;
     }
 
+    Environment closure() {
+        return closure;
+    }
+
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
     LoxFunction bind(LoxInstance instance) {
+        if (ExecutionStats.enabled) ExecutionStats.boundMethod();
         Environment environment = new Environment(closure);
         environment.define("this", instance);
         return new LoxFunction(declaration, environment, isInitializer);
     }
 
+    @Override
+    public boolean isPure() {
+        // Not cached, which would grow every bound method; only large list operations ask
+        return Purity.isPure(this);
+    }
+
     @Override
     public int arity() {
         return declaration.params.size();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, null, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke1(interpreter, null, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke2(interpreter, null, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke3(interpreter, null, a, b, c);
+    }
+
+    /*
+     * The invoke methods call the function as a method of self, as if it
+     * had been bound to self first, or as a plain function when self is
+     * null. Calling a method this way saves making the bound method.
+     */
+
+    Object invoke(Interpreter interpreter, LoxInstance self, Object[] arguments) {
+        Environment environment = frame(interpreter, self);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(declaration.params.get(i).lexeme, arguments[i]);
+        }
+        return run(interpreter, environment);
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance self) {
+        return run(interpreter, frame(interpreter, self));
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance self, Object a) {
+        Environment environment = frame(interpreter, self);
+        environment.define(declaration.params.get(0).lexeme, a);
+        return run(interpreter, environment);
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance self, Object a, Object b) {
+        Environment environment = frame(interpreter, self);
+        environment.define(declaration.params.get(0).lexeme, a);
+        environment.define(declaration.params.get(1).lexeme, b);
+        return run(interpreter, environment);
+    }
+
+    Object invoke3(Interpreter interpreter, LoxInstance self, Object a, Object b, Object c) {
+        Environment environment = frame(interpreter, self);
+        environment.define(declaration.params.get(0).lexeme, a);
+        environment.define(declaration.params.get(1).lexeme, b);
+        environment.define(declaration.params.get(2).lexeme, c);
+        return run(interpreter, environment);
+    }
+
+    // The scope for the parameters, inside the one bind() would have made for this
+    private Environment frame(Interpreter interpreter, LoxInstance self) {
+        if (ExecutionStats.enabled) ExecutionStats.functionCall();
+        ExecutionBudget budget = interpreter.budget;
+        if (budget != null) budget.tick(declaration.name);
+        if (interpreter.heap != null) {
+            interpreter.heap.charge(interpreter, declaration.name,
+                HeapAccount.ENVIRONMENT + HeapAccount.BINDING * declaration.params.size());
         }
+        if (self == null) return new Environment(closure);
+
+        Environment bound = new Environment(closure);
+        bound.define("this", self);
+        return new Environment(bound);
+    }
 
+    private Object run(Interpreter interpreter, Environment environment) {
+        Profiler.Stack profiler = interpreter.profiler;
+        if (profiler != null) profiler.enter(declaration);
+        FlightEvents.FunctionCall event = FlightEvents.beginCall();
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
+            if (isInitializer) return environment.enclosing.getAt(0, "this");
             return returnValue.value;
+        } catch (StackOverflowError e) {
+            // Unbounded recursion fails the script instead of escaping to whoever embeds it
+            throw new RuntimeError(declaration.name, "Stack overflow.");
+        } finally {
+            if (profiler != null) profiler.exit();
+            FlightEvents.endCall(event, declaration);
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
+        if (isInitializer) return environment.enclosing.getAt(0, "this");
 
         return null;
     }
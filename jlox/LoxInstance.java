@@ -1,20 +1,23 @@
 package jlox;
 
-import java.util.HashMap;
+import java.io.Serializable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LoxInstance implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class LoxInstance {
     private LoxClass loxClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // Concurrent so tasks can share instances; nil is stored as Nil.VALUE
+    private final Map<String, Object> fields = new ConcurrentHashMap<>(4);
 
     LoxInstance(LoxClass loxClass) {
         this.loxClass = loxClass;
     }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+        Object value = fields.get(name.lexeme);
+        if (value != null) return Nil.unwrap(value);
 
         LoxFunction method = loxClass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
@@ -22,12 +25,22 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    // The method a call of name runs, unbound, or null if a field hides it or there is no such method
+    LoxFunction method(String name) {
+        if (loxClass == null || fields.containsKey(name)) return null;
+        return loxClass.findMethod(name);
+    }
+
+    Map<String, Object> fields() {
+        return fields;
+    }
+
     public Object getLoxClass() {
         return loxClass;
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        fields.put(name.lexeme, Nil.wrap(value));
     }
 
     @Override
@@ -0,0 +1,265 @@
+package jlox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A growable array, made with List().
+ *
+ *   get(i), set(i, value)   the element at a whole-number index from zero
+ *   append(value)           adds an element at the end
+ *   length()                the number of elements
+ *   map(fn), filter(fn)     a new list of fn(element), or of the elements
+ *                           for which fn(element) is truthy
+ *   reduce(fn, initial)     fn(...fn(fn(initial, e0), e1)..., en)
+ *
+ * map and filter call fn in parallel on the common ForkJoin pool when the
+ * list has at least PARALLEL_THRESHOLD elements and fn is pure, whether
+ * Purity worked that out or the script said so with pure(fn). reduce only
+ * runs in parallel for functions marked with pure(), since a parallel
+ * reduce also needs fn to be associative, which no analysis checks; it
+ * then folds slices of the list and combines their results, applying fn
+ * to initial last. Results keep the order of the list either way.
+ *
+ * Each method holds the list's lock, so tasks may share a list; map,
+ * filter and reduce work on a copy taken at the start and call fn without
+ * the lock.
+ */
+class LoxList extends NativeInstance implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Below this many elements, handing out the work costs more than it saves
+    static final int PARALLEL_THRESHOLD = 2048;
+    // The list object, its ArrayList and the array's header
+    static final long SIZE = 16 + 24 + 16;
+    static final long ELEMENT = 4;
+
+    private final ArrayList<Object> elements;
+
+    LoxList() {
+        elements = new ArrayList<>();
+    }
+
+    LoxList(List<Object> elements) {
+        this.elements = new ArrayList<>(elements);
+    }
+
+    @Override
+    int arity(String method) {
+        switch (method) {
+            case "get": return 1;
+            case "set": return 2;
+            case "append": return 1;
+            case "length": return 0;
+            case "map": return 1;
+            case "filter": return 1;
+            case "reduce": return 2;
+            default: return -1;
+        }
+    }
+
+    @Override
+    Object call(Interpreter interpreter, String method, Object[] arguments) {
+        switch (method) {
+            case "get":
+                return get(arguments[0]);
+            case "set":
+                set(arguments[0], arguments[1]);
+                return null;
+            case "append":
+                append(interpreter, arguments[0]);
+                return null;
+            case "length":
+                return (double)length();
+            case "map":
+                return map(interpreter, function(arguments[0], 1, "map"));
+            case "filter":
+                return filter(interpreter, function(arguments[0], 1, "filter"));
+            default:
+                return reduce(interpreter, function(arguments[0], 2, "reduce"), arguments[1]);
+        }
+    }
+
+    synchronized Object get(Object index) {
+        return elements.get(index(index));
+    }
+
+    synchronized void set(Object index, Object value) {
+        elements.set(index(index), value);
+    }
+
+    void append(Interpreter interpreter, Object value) {
+        if (interpreter.heap != null) interpreter.heap.charge(interpreter, ELEMENT);
+        synchronized (this) {
+            elements.add(value);
+        }
+    }
+
+    synchronized int length() {
+        return elements.size();
+    }
+
+    // What HeapAccount walks
+    synchronized Object[] snapshot() {
+        return elements.toArray();
+    }
+
+    LoxList map(Interpreter interpreter, LoxCallable function) {
+        return new LoxList(Arrays.asList(apply(interpreter, function, snapshot())));
+    }
+
+    LoxList filter(Interpreter interpreter, LoxCallable function) {
+        Object[] values = snapshot();
+        Object[] keep = apply(interpreter, function, values);
+        LoxList result = new LoxList();
+        for (int i = 0; i < values.length; i++) {
+            if (interpreter.isTruthy(keep[i])) result.elements.add(values[i]);
+        }
+        return result;
+    }
+
+    Object reduce(Interpreter interpreter, LoxCallable function, Object initial) {
+        Object[] values = snapshot();
+        if (function instanceof PureFunction && isParallel(values)) {
+            Object folded = ForkJoinPool.commonPool().invoke(
+                new Fold(interpreter, function, values, 0, values.length, leafSize(values)));
+            return function.call2(interpreter, initial, folded);
+        }
+
+        Object result = initial;
+        for (Object value : values) {
+            result = function.call2(interpreter, result, value);
+        }
+        return result;
+    }
+
+    // fn applied to every value, in order
+    private static Object[] apply(Interpreter interpreter, LoxCallable function, Object[] values) {
+        Object[] results = new Object[values.length];
+        if (isParallel(values) && function.isPure()) {
+            ForkJoinPool.commonPool().invoke(
+                new Apply(interpreter, function, values, results, 0, values.length, leafSize(values)));
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                results[i] = function.call1(interpreter, values[i]);
+            }
+        }
+        return results;
+    }
+
+    private static boolean isParallel(Object[] values) {
+        return values.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    // A few slices per worker, so one slow slice doesn't leave the others idle
+    private static int leafSize(Object[] values) {
+        return Math.max(values.length / (ForkJoinPool.getCommonPoolParallelism() * 4), 256);
+    }
+
+    /** Calls the function on a range of values; each slice runs in an interpreter of its own. */
+    private static class Apply extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter parent;
+        private final LoxCallable function;
+        private final Object[] values;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int leaf;
+
+        Apply(Interpreter parent, LoxCallable function, Object[] values, Object[] results, int from, int to, int leaf) {
+            this.parent = parent;
+            this.function = function;
+            this.values = values;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leaf) {
+                Interpreter interpreter = new Interpreter(parent);
+                for (int i = from; i < to; i++) {
+                    results[i] = function.call1(interpreter, values[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Apply(parent, function, values, results, from, middle, leaf),
+                      new Apply(parent, function, values, results, middle, to, leaf));
+        }
+    }
+
+    /** Folds a non-empty range of values from its first, combining the halves left to right. */
+    private static class Fold extends RecursiveTask<Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter parent;
+        private final LoxCallable function;
+        private final Object[] values;
+        private final int from;
+        private final int to;
+        private final int leaf;
+
+        Fold(Interpreter parent, LoxCallable function, Object[] values, int from, int to, int leaf) {
+            this.parent = parent;
+            this.function = function;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected Object compute() {
+            Interpreter interpreter = new Interpreter(parent);
+            if (to - from <= leaf) {
+                Object result = values[from];
+                for (int i = from + 1; i < to; i++) {
+                    result = function.call2(interpreter, result, values[i]);
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            Fold right = new Fold(parent, function, values, middle, to, leaf);
+            right.fork();
+            Object left = new Fold(parent, function, values, from, middle, leaf).compute();
+            return function.call2(interpreter, left, right.join());
+        }
+    }
+
+    private static LoxCallable function(Object value, int arity, String method) {
+        if (!(value instanceof LoxCallable) || ((LoxCallable)value).arity() != arity) {
+            throw new NativeError(method + "() takes a function of " + arity + (arity == 1 ? " argument." : " arguments."));
+        }
+        return (LoxCallable)value;
+    }
+
+    private int index(Object index) {
+        if (!(index instanceof Double) || (double)index != Math.floor((double)index)) {
+            throw new NativeError("List index must be a whole number.");
+        }
+        double value = (double)index;
+        if (value < 0 || value >= elements.size()) throw new NativeError("List index out of range.");
+        return (int)value;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) text.append(", ");
+            Object element = elements.get(i);
+            text.append(element == this ? "[...]" : Interpreter.stringify(element));
+        }
+        return text.append("]").toString();
+    }
+}
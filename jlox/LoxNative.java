@@ -0,0 +1,36 @@
+package jlox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks Java code for Interpreter.bind() to expose to Lox.
+ *
+ * On a public static method, the method becomes a global Lox function. On
+ * a class, every public static method of the class is exposed through one
+ * global named after the class, as in Geometry.area(2, 3).
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface LoxNative {
+    /** The Lox name; the Java name when empty. */
+    String name() default "";
+
+    /**
+     * Whether the method has no side effects, so Lox functions calling it
+     * can still be pure and run in parallel. On a class, applies to all of
+     * its methods. A pure method may still read state that changes; see
+     * deterministic().
+     */
+    boolean pure() default false;
+
+    /**
+     * Whether the method also returns the same result whenever it is given
+     * the same arguments, reading no state that can change, so --memoize
+     * may cache Lox functions calling it. Implies pure. On a class, applies
+     * to all of its methods.
+     */
+    boolean deterministic() default false;
+}
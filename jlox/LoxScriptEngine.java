@@ -0,0 +1,269 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+/**
+ * The javax.script engine for Lox.
+ *
+ * The engine scope of a context is the Lox globals: bindings made by
+ * createBindings() belong to an interpreter of their own and are its global
+ * environment, so values put there are globals and everything a script
+ * defines can be read back or invoked. Other Bindings work too, but are
+ * copied into a fresh interpreter before each run and the globals copied
+ * back after it. Global scope values are visible as globals that the engine
+ * scope doesn't define.
+ *
+ * compile() returns a CompiledScript that keeps the resolved program, so
+ * evaluating it again skips scanning, parsing and resolving. A compiled
+ * script can be shared between threads as long as each thread evaluates it
+ * with its own bindings; an interpreter runs one thing at a time. eval
+ * returns the value of the script's last statement if that is an
+ * expression, and null otherwise.
+ *
+ * As when a program run from the command line ends, tasks a script spawned
+ * are stopped when the eval, or the invocation, that ran it returns.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    private final ScriptEngineFactory factory;
+
+    LoxScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+        context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+    }
+
+    private static class LoxCompiledScript extends CompiledScript {
+        private final LoxScriptEngine engine;
+        private final Program program;
+
+        LoxCompiledScript(LoxScriptEngine engine, Program program) {
+            this.engine = engine;
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return engine.run(program, context);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return run(compileProgram(script, context), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return new LoxCompiledScript(this, compileProgram(script, context));
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new LoxBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        Token token = new Token(TokenType.IDENTIFIER, name, null, 0);
+        Interpreter interpreter = interpreter(context);
+        Object function = Nil.unwrap(interpreter.globals.bindings().get(name));
+        if (function == null) function = interpreter.nativeFunction(name);
+        if (!(function instanceof LoxCallable)) throw new NoSuchMethodException("No function '" + name + "'.");
+        return invoke(interpreter, (LoxCallable)function, token, args);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (!(thiz instanceof LoxInstance)) throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+        Token token = new Token(TokenType.IDENTIFIER, name, null, 0);
+        Object method;
+        try {
+            method = ((LoxInstance)thiz).get(token);
+        } catch (RuntimeError error) {
+            throw new NoSuchMethodException(error.getMessage());
+        }
+        if (!(method instanceof LoxCallable)) throw new NoSuchMethodException("No method '" + name + "'.");
+        return invoke(interpreter(context), (LoxCallable)method, token, args);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> type) {
+        return proxy(null, type);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> type) {
+        if (!(thiz instanceof LoxInstance)) throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+        return proxy(thiz, type);
+    }
+
+    // Host values as Lox sees them: Lox numbers are doubles
+    static Object toLox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) return ((Number)value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+    private static Program compileProgram(String script, ScriptContext context) throws ScriptException {
+        try {
+            return Program.compile(script);
+        } catch (CompileError error) {
+            Object file = context.getAttribute(ScriptEngine.FILENAME);
+            throw new ScriptException(error.getMessage(), file == null ? null : file.toString(), error.line());
+        }
+    }
+
+    private Object run(Program program, ScriptContext context) throws ScriptException {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        Interpreter interpreter = interpreter(context);
+        try {
+            return interpreter.run(program);
+        } catch (RuntimeError error) {
+            throw scriptException(error, context);
+        } finally {
+            interpreter.cancel();
+            if (bindings != null && !(bindings instanceof LoxBindings)) {
+                for (Map.Entry<String, Object> global : interpreter.globals.bindings().entrySet()) {
+                    bindings.put(global.getKey(), Nil.unwrap(global.getValue()));
+                }
+            }
+        }
+    }
+
+    private Object invoke(Interpreter interpreter, LoxCallable callee, Token name, Object[] args) throws ScriptException {
+        Object[] arguments = new Object[args == null ? 0 : args.length];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = toLox(args[i]);
+        try {
+            return interpreter.invoke(callee, arguments, name);
+        } catch (RuntimeError error) {
+            throw scriptException(error, context);
+        } finally {
+            interpreter.cancel();
+        }
+    }
+
+    // The interpreter for the context's engine scope, set up to write to the context's writers
+    private Interpreter interpreter(ScriptContext context) {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        Interpreter interpreter;
+        if (bindings instanceof LoxBindings) {
+            interpreter = ((LoxBindings)bindings).interpreter;
+        } else {
+            interpreter = new Interpreter();
+            if (bindings != null) {
+                for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+                    interpreter.globals.define(entry.getKey(), toLox(entry.getValue()));
+                }
+            }
+        }
+
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        if (global != null) {
+            Map<String, Object> globals = interpreter.globals.bindings();
+            for (Map.Entry<String, Object> entry : global.entrySet()) {
+                if (!globals.containsKey(entry.getKey())) globals.put(entry.getKey(), Nil.wrap(toLox(entry.getValue())));
+            }
+        }
+
+        interpreter.output(printWriter(context.getWriter()), printWriter(context.getErrorWriter()));
+        return interpreter;
+    }
+
+    private static PrintWriter printWriter(Writer writer) {
+        return writer instanceof PrintWriter ? (PrintWriter)writer : new PrintWriter(writer, true);
+    }
+
+    private static ScriptException scriptException(RuntimeError error, ScriptContext context) {
+        Object file = context.getAttribute(ScriptEngine.FILENAME);
+        return new ScriptException(error.getMessage(), file == null ? null : file.toString(), error.token.line);
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            for (int n; (n = reader.read(buffer)) != -1; ) source.append(buffer, 0, n);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    // Each interface method calls the Lox function, or method of thiz, with the same name
+    private <T> T proxy(Object thiz, Class<T> type) {
+        if (type == null || !type.isInterface()) throw new IllegalArgumentException("Not an interface: " + type);
+
+        Interpreter interpreter = interpreter(context);
+        for (Method method : type.getMethods()) {
+            Token name = new Token(TokenType.IDENTIFIER, method.getName(), null, 0);
+            Object target;
+            try {
+                target = thiz != null ? ((LoxInstance)thiz).get(name) : interpreter.globals.get(name);
+            } catch (RuntimeError error) {
+                return null;
+            }
+            if (!(target instanceof LoxCallable)) return null;
+        }
+
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return "Lox " + type.getName();
+                }
+            }
+            Object result = thiz != null
+                ? invokeMethod(thiz, method.getName(), args)
+                : invokeFunction(method.getName(), args);
+            return fromLox(result, method.getReturnType());
+        });
+        return type.cast(instance);
+    }
+
+    // Narrows Lox doubles to the numeric type an interface method returns
+    private static Object fromLox(Object value, Class<?> type) {
+        if (!(value instanceof Double)) return value;
+        double number = (Double)value;
+        if (type == int.class || type == Integer.class) return (int)number;
+        if (type == long.class || type == Long.class) return (long)number;
+        if (type == float.class || type == Float.class) return (float)number;
+        if (type == short.class || type == Short.class) return (short)number;
+        if (type == byte.class || type == Byte.class) return (byte)number;
+        return value;
+    }
+}
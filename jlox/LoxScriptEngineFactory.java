@@ -0,0 +1,92 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Makes Lox available through javax.script, as "lox" or "jlox". The
+ * ScriptEngineManager finds it through META-INF/services, which has to be
+ * on the class path next to the compiled classes.
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList("lox", "jlox", "Lox"));
+
+    @Override
+    public String getEngineName() {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("lox");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return Collections.singletonList("application/x-lox");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return NAMES.get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // An engine's default bindings hold one interpreter, which runs one script at a time
+            case "THREADING": return null;
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String object, String method, String... args) {
+        return object + "." + method + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String text) {
+        // Lox strings have no escapes
+        return "print \"" + text.replace("\"", "'") + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement);
+            if (!statement.endsWith(";") && !statement.endsWith("}")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
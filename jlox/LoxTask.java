@@ -0,0 +1,131 @@
+package jlox;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A Lox function running on a thread of its own, started by spawn(fn) and
+ * waited for with join(task).
+ *
+ * Tasks run on virtual threads where the JVM has them (JDK 21 and later),
+ * so a script can start thousands of them cheaply, and on daemon platform
+ * threads before that. Neither kind keeps the JVM alive: when the script
+ * ends, tasks still running end with it.
+ *
+ * A task gets an interpreter of its own that shares the globals, limits
+ * and output of the one that spawned it. Variables the function captured
+ * are shared with the spawner too. Reads and writes of variables and fields
+ * are atomic one by one, but nothing orders them between tasks except
+ * spawn, join and channels; use a channel to hand results around rather
+ * than polling a variable. Starting a task happens before anything it
+ * does, and everything it did happens before join returns.
+ */
+class LoxTask {
+    private static final ThreadFactory THREADS = threadFactory();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition finished = lock.newCondition();
+    private boolean done = false;
+    private Object result = null;
+    private RuntimeException error = null;
+
+    // The spawn() call, where failures without a token of their own are reported; null if unknown
+    private final Token site;
+
+    private LoxTask(Token site) {
+        this.site = site;
+    }
+
+    /**
+     * The spawn() native. The interpreter calls it through spawn() below
+     * with the call's token; other callers go through call() without one.
+     */
+    static final class Spawn implements LoxCallable {
+        @Override
+        public int arity() { return 1; }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            return spawn(interpreter, arguments[0], null);
+        }
+
+        @Override
+        public String toString() { return "<native fn>"; }
+    }
+
+    static LoxTask spawn(Interpreter interpreter, Object function, Token site) {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 0)
+            throw new NativeError("spawn() takes a function with no parameters.");
+
+        LoxTask task = new LoxTask(site);
+        Interpreter child = new Interpreter(interpreter);
+        THREADS.newThread(() -> task.run(child, (LoxCallable)function)).start();
+        return task;
+    }
+
+    private void run(Interpreter interpreter, LoxCallable function) {
+        Object value = null;
+        RuntimeException failure = null;
+        try {
+            value = function.call0(interpreter);
+        } catch (RuntimeError e) {
+            failure = e;
+        } catch (NativeError e) {
+            // A native spawned directly; a function calling one has already reported it at that call
+            failure = site != null ? new RuntimeError(site, e.getMessage()) : e;
+        } catch (RuntimeException e) {
+            String message = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : ".");
+            failure = site != null ? new RuntimeError(site, "Task threw " + message) : new NativeError("Task threw " + message);
+        } finally {
+            lock.lock();
+            try {
+                result = value;
+                error = failure;
+                done = true;
+                finished.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits for the task and returns what its function returned, or throws
+     * the error it failed with: a RuntimeError, or a NativeError for the
+     * caller to report if the task was spawned without a token.
+     */
+    Object join(Interpreter interpreter) {
+        lock.lock();
+        try {
+            while (!done) ExecutionBudget.await(interpreter.budget, finished);
+            if (error != null) throw error;
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ThreadFactory threadFactory() {
+        try {
+            // Thread.ofVirtual().name("lox-task-", 1).factory(), without requiring JDK 21 to build
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            builder = type.getMethod("name", String.class, long.class).invoke(builder, "lox-task-", 1L);
+            return (ThreadFactory)type.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return task -> {
+                Thread thread = new Thread(task, "lox-task-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,130 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the results of calls to deterministic functions (see Purity) for
+ * --memoize, keyed by the function and its arguments, so a recurrence such
+ * as fib runs in linear time. Arguments match when == says they are equal.
+ *
+ * The cache holds at most a fixed number of results and evicts the least
+ * recently used. A call that fails isn't cached. Whether a function can be
+ * memoized is decided on its first call and kept for as long as the
+ * function lives; like Purity, it assumes the global functions it calls
+ * aren't replaced afterwards.
+ *
+ * Tasks share the memoizer of the interpreter that spawned them.
+ */
+class Memoizer {
+    private final int capacity;
+    private final Map<Key, Object> results;
+    private final Map<LoxFunction, Boolean> memoizable = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    Memoizer(int capacity) {
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() <= Memoizer.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    boolean isMemoizable(LoxFunction function) {
+        Boolean known = memoizable.get(function);
+        if (known != null) return known;
+
+        boolean result = Purity.isDeterministic(function);
+        memoizable.put(function, result);
+        return result;
+    }
+
+    // Calls function, or returns what an earlier call with the same arguments did; nil is cached as Nil.VALUE
+    Object call(Interpreter interpreter, LoxFunction function, Object[] arguments) {
+        Key key = new Key(function, arguments);
+        Object result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result != null) {
+            hits.increment();
+            return Nil.unwrap(result);
+        }
+
+        // Not under the lock: the call may recurse, and other tasks may fill the cache meanwhile
+        misses.increment();
+        result = function.call(interpreter, arguments);
+        synchronized (results) {
+            results.put(key, Nil.wrap(result));
+        }
+        return result;
+    }
+
+    // The arguments of a fixed-arity call, as call() takes them
+    static Object[] arguments(int count, Object a, Object b, Object c) {
+        switch (count) {
+            case 0: return LoxCallable.NO_ARGUMENTS;
+            case 1: return new Object[] {a};
+            case 2: return new Object[] {a, b};
+            default: return new Object[] {a, b, c};
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    void report() {
+        long hits = hits();
+        long calls = hits + misses();
+        int size;
+        synchronized (results) {
+            size = results.size();
+        }
+        System.err.printf("Memoized calls: %d, hits: %d (%.1f%%), evictions: %d, cached: %d of %d\n",
+            calls, hits, calls == 0 ? 0.0 : 100.0 * hits / calls, evictions(), size, capacity);
+    }
+
+    private static final class Key {
+        private final LoxFunction function;
+        private final Object[] arguments;
+        private final int hash;
+
+        Key(LoxFunction function, Object[] arguments) {
+            this.function = function;
+            this.arguments = arguments;
+            this.hash = 31 * System.identityHashCode(function) + Arrays.hashCode(arguments);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key)other;
+            return hash == key.hash && function == key.function && Arrays.equals(arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Loads the modules named by import statements.
+ *
+ * Each module is read, scanned, parsed and resolved exactly once, on the
+ * common ForkJoinPool, and its imports are submitted as soon as they are
+ * discovered so sibling modules compile in parallel. Compiled modules are
+ * shared by every importer, and go through the on-disk program cache when
+ * one is enabled.
+ *
+ * Running a module is deterministic regardless of how it was compiled: the
+ * first import executed runs the module's top-level code in the global
+ * environment, and later imports of the same module do nothing.
+ */
+class ModuleLoader {
+    private static class Module {
+        final Path path;
+        final Lox.Diagnostics diagnostics = new Lox.Diagnostics();
+        final List<Stmt.Import> imports = new ArrayList<>();
+        final List<ForkJoinTask<Module>> dependencies = new ArrayList<>();
+        FlatAst program = null;
+
+        // With --coverage the resolved tree is kept instead, since it carries the probes
+        List<Stmt> statements = null;
+        boolean unreadable = false;
+        boolean reported = false;
+
+        Module(Path path) {
+            this.path = path;
+        }
+    }
+
+    private final ConcurrentHashMap<Path, ForkJoinTask<Module>> modules = new ConcurrentHashMap<>();
+    private final Set<Path> initialized = new HashSet<>();
+    private final ProgramCache cache;
+
+    // Directory of the module whose top-level code is running
+    private Path directory;
+
+    ModuleLoader(Path directory, ProgramCache cache) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.cache = cache;
+    }
+
+    static List<Stmt.Import> imports(List<Stmt> statements) {
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                imports.add((Stmt.Import)statement);
+            }
+        }
+        return imports;
+    }
+
+    // The script being run counts as already initialized if a module imports it
+    void markInitialized(Path script) {
+        initialized.add(script.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Compiles everything reachable from these imports, then reports any
+     * errors in import order. Returns false if there were errors.
+     */
+    boolean preload(List<Stmt.Import> imports) {
+        Deque<Stmt.Import> pendingImports = new ArrayDeque<>();
+        Deque<ForkJoinTask<Module>> pending = new ArrayDeque<>();
+        for (Stmt.Import stmt : imports) {
+            pendingImports.add(stmt);
+            pending.add(load(directory.resolve(stmt.path)));
+        }
+
+        boolean ok = true;
+        Set<Path> visited = new HashSet<>();
+        while (!pending.isEmpty()) {
+            Stmt.Import stmt = pendingImports.pop();
+            Module module = pending.pop().join();
+            if (!visited.add(module.path) || initialized.contains(module.path)) continue;
+
+            if (module.unreadable) {
+                if (!module.reported)
+                    Lox.error(stmt.keyword, "Could not read module '" + stmt.path + "'.");
+                module.reported = true;
+                ok = false;
+                continue;
+            }
+
+            if (!module.reported) Lox.replay(stmt.path, module.diagnostics);
+            module.reported = true;
+            if (module.diagnostics.hadError) ok = false;
+
+            // Depth-first, in source order
+            for (int i = module.imports.size() - 1; i >= 0; i--) {
+                pendingImports.push(module.imports.get(i));
+                pending.push(module.dependencies.get(i));
+            }
+        }
+
+        return ok;
+    }
+
+    // Synchronized for spawned tasks: a module imported by two at once runs once, before either goes on
+    synchronized void execute(Interpreter interpreter, Stmt.Import stmt) {
+        Path path = directory.resolve(stmt.path).toAbsolutePath().normalize();
+        if (!initialized.add(path)) return;
+
+        ForkJoinTask<Module> task = modules.get(path);
+        Module module = task == null ? null : task.join();
+        if (module == null || (module.program == null && module.statements == null))
+            throw new RuntimeError(stmt.keyword, "Module '" + stmt.path + "' was not loaded.");
+
+        Path enclosing = directory;
+        if (interpreter.profiler != null) interpreter.profiler.enter("<module " + stmt.path + ">");
+        try {
+            directory = path.getParent();
+            List<Stmt> statements = module.statements;
+            if (statements == null) statements = module.program.statements();
+            interpreter.executeBlock(statements, interpreter.globals);
+        } finally {
+            directory = enclosing;
+            if (interpreter.profiler != null) interpreter.profiler.exit();
+        }
+    }
+
+    private ForkJoinTask<Module> load(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        // The pool is only touched here, so scripts without imports never start it
+        return modules.computeIfAbsent(key, p -> ForkJoinPool.commonPool().submit(() -> compile(p)));
+    }
+
+    // Runs on a pool thread; diagnostics are captured rather than printed
+    private Module compile(Path path) {
+        Module module = new Module(path);
+        Lox.capture(module.diagnostics);
+        try {
+            String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+
+            List<Stmt.Import> imports;
+            if (Lox.coverage != null) {
+                module.statements = Lox.compile(source, path);
+                if (module.statements == null) return module;
+                imports = imports(module.statements);
+            } else {
+                FlatAst program = cache == null ? null : cache.load(source);
+                if (program == null) {
+                    program = Lox.compile(source);
+                    if (program != null && cache != null && !module.diagnostics.hadWarning)
+                        cache.store(source, program);
+                }
+                if (program == null) return module;
+                module.program = program;
+                imports = program.imports();
+            }
+
+            for (Stmt.Import stmt : imports) {
+                module.imports.add(stmt);
+                module.dependencies.add(load(path.getParent().resolve(stmt.path)));
+            }
+        } catch (IOException e) {
+            module.unreadable = true;
+        } finally {
+            Lox.capture(null);
+        }
+
+        return module;
+    }
+}
@@ -0,0 +1,403 @@
+package jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes static Java methods to Lox, for Interpreter.bind() and --native.
+ *
+ * Each method's adapter is built once, when it is bound: a MethodHandle
+ * that takes and returns Objects, with a converter in front of every
+ * parameter and one behind the result. Calls with up to three arguments go
+ * through invokeExact, so nothing is allocated but the result; longer ones
+ * spread an array.
+ *
+ * Lox numbers convert to double, float, long, int, short and byte, and
+ * their boxes; the integer types only take whole numbers in range. Lox
+ * booleans convert to boolean, strings to String, and one-character
+ * strings to char. Any other parameter type takes values of that type,
+ * such as objects an earlier call returned. Results go the other way:
+ * every Java number becomes a Lox number, a char a string, and void nil.
+ * An exception thrown by the method fails the script with its message.
+ *
+ * A class bound as one global gets one method per name. Of overloads, the
+ * one whose numeric parameters are widest is used, counting double, then
+ * float, long, int, short and byte, so that Math.addExact takes longs
+ * rather than ints and keeps working past the int range. Overloads that
+ * tie on that go to the one with fewest parameters.
+ */
+final class NativeBinding {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private NativeBinding() {}
+
+    /**
+     * Binds a class the way Interpreter.bind() describes: a class marked
+     * @LoxNative, or with no marked methods at all, becomes one global
+     * named after it; otherwise each marked method becomes a global.
+     */
+    static void bind(Interpreter interpreter, Class<?> type) {
+        LoxNative marker = type.getAnnotation(LoxNative.class);
+        List<Method> marked = new ArrayList<>();
+        for (Method method : publicStaticMethods(type)) {
+            if (method.isAnnotationPresent(LoxNative.class)) marked.add(method);
+        }
+
+        if (marker != null || marked.isEmpty()) {
+            String name = marker != null && !marker.name().isEmpty() ? marker.name() : type.getSimpleName();
+            interpreter.globals.define(name, namespace(type, name, marker));
+            return;
+        }
+
+        for (Method method : marked) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            String name = annotation.name().isEmpty() ? method.getName() : annotation.name();
+            JavaFunction function = function(method, name, annotation.pure() || annotation.deterministic(), annotation.deterministic());
+            if (function == null) {
+                throw new IllegalArgumentException("Can't convert the parameters of " + method + " from Lox values.");
+            }
+            interpreter.natives.put(name, function);
+            interpreter.globals.define(name, function);
+        }
+    }
+
+    private static List<Method> publicStaticMethods(Class<?> type) {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) && method.getDeclaringClass() == type) methods.add(method);
+        }
+        // getMethods() has no order; overloads are picked from a sorted list so bindings are repeatable
+        methods.sort(Comparator.comparing(Method::toString));
+        return methods;
+    }
+
+    // Of overloads, the one with the widest numeric parameters wins, then the one taking fewest arguments
+    private static JavaClass namespace(Class<?> type, String name, LoxNative marker) {
+        Map<String, Method> chosen = new HashMap<>();
+        for (Method method : publicStaticMethods(type)) {
+            Method other = chosen.get(method.getName());
+            if (other == null || rank(method) > rank(other)) chosen.put(method.getName(), method);
+        }
+
+        Map<String, JavaFunction> functions = new HashMap<>();
+        for (Method method : chosen.values()) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            boolean deterministic = marker != null && marker.deterministic()
+                || annotation != null && annotation.deterministic();
+            boolean pure = deterministic || marker != null && marker.pure() || annotation != null && annotation.pure();
+            JavaFunction function = function(method, method.getName(), pure, deterministic);
+            // Methods Lox can't call are left out
+            if (function != null) functions.put(method.getName(), function);
+        }
+        return new JavaClass(name, functions);
+    }
+
+    private static int rank(Method method) {
+        int width = 0;
+        for (Class<?> parameter : method.getParameterTypes()) width += width(parameter);
+        return width * 256 - method.getParameterCount();
+    }
+
+    // Orders the numeric types by how much of a Lox number they can take; others count for nothing
+    private static int width(Class<?> type) {
+        if (type == double.class || type == Double.class) return 6;
+        if (type == float.class || type == Float.class) return 5;
+        if (type == long.class || type == Long.class) return 4;
+        if (type == int.class || type == Integer.class) return 3;
+        if (type == short.class || type == Short.class) return 2;
+        if (type == byte.class || type == Byte.class) return 1;
+        return 0;
+    }
+
+    // The function calling method, or null if a parameter type isn't convertible
+    private static JavaFunction function(Method method, String name, boolean pure, boolean deterministic) {
+        MethodHandle handle;
+        try {
+            // Public methods of classes that aren't public themselves need this
+            method.trySetAccessible();
+            handle = LOOKUP.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Can't access " + method + ".", e);
+        }
+
+        Class<?>[] parameters = method.getParameterTypes();
+        MethodHandle[] converters = new MethodHandle[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            converters[i] = argument(parameters[i]);
+            if (converters[i] == null) return null;
+        }
+        handle = MethodHandles.filterArguments(handle, 0, converters);
+        handle = result(handle, method.getReturnType());
+        handle = handle.asType(MethodType.genericMethodType(parameters.length));
+        if (parameters.length > 3) handle = handle.asSpreader(Object[].class, parameters.length);
+
+        return new JavaFunction(name, method.getDeclaringClass().getSimpleName() + "." + method.getName(),
+                                parameters.length, pure, deterministic, handle);
+    }
+
+    // Converts an Object to the parameter type, as a (Object)type handle
+    private static MethodHandle argument(Class<?> type) {
+        try {
+            if (type == Object.class) return MethodHandles.identity(Object.class);
+            if (type == double.class || type == Double.class) return converter("toDouble", double.class).asType(MethodType.methodType(type, Object.class));
+            if (type == float.class || type == Float.class) return converter("toFloat", float.class).asType(MethodType.methodType(type, Object.class));
+            if (type == long.class || type == Long.class) return converter("toLong", long.class).asType(MethodType.methodType(type, Object.class));
+            if (type == int.class || type == Integer.class) return converter("toInt", int.class).asType(MethodType.methodType(type, Object.class));
+            if (type == short.class || type == Short.class) return converter("toShort", short.class).asType(MethodType.methodType(type, Object.class));
+            if (type == byte.class || type == Byte.class) return converter("toByte", byte.class).asType(MethodType.methodType(type, Object.class));
+            if (type == boolean.class || type == Boolean.class) return converter("toBoolean", boolean.class).asType(MethodType.methodType(type, Object.class));
+            if (type == char.class || type == Character.class) return converter("toChar", char.class).asType(MethodType.methodType(type, Object.class));
+            if (type.isPrimitive()) return null;
+
+            MethodHandle check = LOOKUP.findStatic(NativeBinding.class, "toReference",
+                MethodType.methodType(Object.class, Class.class, Object.class));
+            return MethodHandles.insertArguments(check, 0, type).asType(MethodType.methodType(type, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Adapts the handle's result to a Lox value
+    private static MethodHandle result(MethodHandle handle, Class<?> type) {
+        try {
+            if (type == void.class) {
+                return MethodHandles.collectArguments(MethodHandles.constant(Object.class, null), 0, handle);
+            }
+            if (type == boolean.class) return handle.asType(handle.type().changeReturnType(Object.class));
+            if (type == char.class) {
+                MethodHandle fromChar = LOOKUP.findStatic(String.class, "valueOf", MethodType.methodType(String.class, char.class));
+                return MethodHandles.filterReturnValue(handle, fromChar);
+            }
+            if (type.isPrimitive()) {
+                // Every other primitive widens to double
+                MethodHandle fromDouble = LOOKUP.findStatic(NativeBinding.class, "fromDouble",
+                    MethodType.methodType(Object.class, double.class));
+                return MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(double.class)), fromDouble);
+            }
+            MethodHandle fromObject = LOOKUP.findStatic(NativeBinding.class, "fromObject",
+                MethodType.methodType(Object.class, Object.class));
+            return MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)), fromObject);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle converter(String name, Class<?> type) throws ReflectiveOperationException {
+        return LOOKUP.findStatic(NativeBinding.class, name, MethodType.methodType(type, Object.class));
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Double) return (double)value;
+        throw new NativeError("Expected a number but got " + describe(value) + ".");
+    }
+
+    private static float toFloat(Object value) {
+        return (float)toDouble(value);
+    }
+
+    private static long toLong(Object value) {
+        return whole(value, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static int toInt(Object value) {
+        return (int)whole(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static short toShort(Object value) {
+        return (short)whole(value, Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    private static byte toByte(Object value) {
+        return (byte)whole(value, Byte.MIN_VALUE, Byte.MAX_VALUE);
+    }
+
+    private static long whole(Object value, long min, long max) {
+        double number = toDouble(value);
+        if (number != Math.floor(number) || number < min || number > max) {
+            throw new NativeError("Expected a whole number between " + min + " and " + max + " but got "
+                                  + Interpreter.stringify(value) + ".");
+        }
+        return (long)number;
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) return (boolean)value;
+        throw new NativeError("Expected a boolean but got " + describe(value) + ".");
+    }
+
+    private static char toChar(Object value) {
+        if (value instanceof String && ((String)value).length() == 1) return ((String)value).charAt(0);
+        throw new NativeError("Expected a one-character string but got " + describe(value) + ".");
+    }
+
+    private static Object toReference(Class<?> type, Object value) {
+        if (value == null || type.isInstance(value)) return value;
+        String expected = type == String.class ? "a string" : "a " + type.getSimpleName();
+        throw new NativeError("Expected " + expected + " but got " + describe(value) + ".");
+    }
+
+    private static Object fromDouble(double value) {
+        return value;
+    }
+
+    private static Object fromObject(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) return ((Number)value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+    private static String describe(Object value) {
+        if (value == null) return "nil";
+        if (value instanceof Double) return "a number";
+        if (value instanceof String) return "a string";
+        if (value instanceof Boolean) return "a boolean";
+        return Interpreter.stringify(value);
+    }
+
+    /** A bound static method. */
+    static final class JavaFunction implements LoxCallable {
+        private final String name;
+        private final String javaName;
+        private final int arity;
+        private final boolean pure;
+        private final boolean deterministic;
+        // Takes arity Objects, or an Object[] of them past three, and returns a Lox value
+        private final MethodHandle handle;
+
+        JavaFunction(String name, String javaName, int arity, boolean pure, boolean deterministic, MethodHandle handle) {
+            this.name = name;
+            this.javaName = javaName;
+            this.arity = arity;
+            this.pure = pure;
+            this.deterministic = deterministic;
+            this.handle = handle;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public boolean isPure() {
+            return pure;
+        }
+
+        @Override
+        public boolean isDeterministic() {
+            return deterministic;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            switch (arity) {
+                case 0: return call0(interpreter);
+                case 1: return call1(interpreter, arguments[0]);
+                case 2: return call2(interpreter, arguments[0], arguments[1]);
+                case 3: return call3(interpreter, arguments[0], arguments[1], arguments[2]);
+            }
+            try {
+                return (Object)handle.invokeExact(arguments);
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            try {
+                return (Object)handle.invokeExact();
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a) {
+            try {
+                return (Object)handle.invokeExact(a);
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object a, Object b) {
+            try {
+                return (Object)handle.invokeExact(a, b);
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+            try {
+                return (Object)handle.invokeExact(a, b, c);
+            } catch (Throwable e) {
+                throw failure(e);
+            }
+        }
+
+        // What a call throws when the method or a conversion fails
+        private RuntimeException failure(Throwable thrown) {
+            if (thrown instanceof RuntimeError || thrown instanceof NativeError) return (RuntimeException)thrown;
+            if (thrown instanceof Error) throw (Error)thrown;
+            String message = thrown.getMessage();
+            return new NativeError(javaName + " threw " + thrown.getClass().getSimpleName()
+                                   + (message != null ? ": " + message : "."));
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn " + name + ">";
+        }
+    }
+
+    /** A bound class: its methods are those of the Java class that Lox can call. */
+    static final class JavaClass extends NativeInstance {
+        private final String name;
+        private final Map<String, JavaFunction> functions;
+
+        JavaClass(String name, Map<String, JavaFunction> functions) {
+            this.name = name;
+            this.functions = functions;
+        }
+
+        JavaFunction function(String method) {
+            return functions.get(method);
+        }
+
+        @Override
+        int arity(String method) {
+            JavaFunction function = functions.get(method);
+            return function != null ? function.arity() : -1;
+        }
+
+        @Override
+        Object call(Interpreter interpreter, String method, Object[] arguments) {
+            return functions.get(method).call(interpreter, arguments);
+        }
+
+        // The functions are already callables; handing them out saves making one per call
+        @Override
+        Object get(Token name) {
+            JavaFunction function = functions.get(name.lexeme);
+            if (function == null) throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            return function;
+        }
+
+        @Override
+        public String toString() {
+            return "<native class " + name + ">";
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package jlox;
+
+/**
+ * An error raised by a native function, which has no token of its own to
+ * report. The interpreter rethrows it as a RuntimeError at the call.
+ */
+class NativeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    NativeError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,32 @@
+package jlox;
+
+/**
+ * A value made by a native, such as a channel, whose methods are written
+ * in Java. Getting a property returns the method bound to the value;
+ * native values have no fields.
+ */
+abstract class NativeInstance {
+    /** Returns the number of arguments a method takes, or -1 if there is no such method. */
+    abstract int arity(String method);
+
+    abstract Object call(Interpreter interpreter, String method, Object[] arguments);
+
+    Object get(Token name) {
+        String method = name.lexeme;
+        int arity = arity(method);
+        if (arity < 0) throw new RuntimeError(name, "Undefined property '" + method + "'.");
+
+        return new LoxCallable() {
+            @Override
+            public int arity() { return arity; }
+
+            @Override
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                return NativeInstance.this.call(interpreter, method, arguments);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package jlox;
+
+/**
+ * Stands in for nil inside environments and instance fields, which are
+ * ConcurrentHashMaps so spawned tasks can share them, and those can't hold
+ * null. Being an enum, it stays a singleton through heap images.
+ */
+enum Nil {
+    VALUE;
+
+    static Object wrap(Object value) {
+        return value == null ? VALUE : value;
+    }
+
+    static Object unwrap(Object value) {
+        return value == VALUE ? null : value;
+    }
+}
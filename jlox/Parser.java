@@ -11,14 +11,24 @@ class Parser {
     // This flag is used to appease the testing suite
     final boolean test = Global.test;
 
-    private static class ParseError extends RuntimeException {}
+    private static class ParseError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
+    private final Coverage.File coverage;
     private int current = 0;
     private int loopDepth = 0;
+    private int blockDepth = 0;
+
+    Parser(TokenBuffer tokens) {
+        this(tokens, null);
+    }
 
-    Parser(List<Token> tokens) {
+    // Statements are given coverage probes for their first line when coverage is non-null
+    Parser(TokenBuffer tokens, Coverage.File coverage) {
         this.tokens = tokens;
+        this.coverage = coverage;
     }
 
     List<Stmt> parse() {
@@ -31,10 +41,12 @@ class Parser {
     }
 
     private Stmt declaration() {
+        int line = tokens.line(current);
         try {
-            if (match(CLASS)) return classDeclaration();
-            if (match(VAR)) return varDeclaration();
-            if (match(FUN)) return funcDeclaration("function");
+            if (match(CLASS)) return probe(classDeclaration(), line);
+            if (match(VAR)) return probe(varDeclaration(), line);
+            if (match(FUN)) return probe(funcDeclaration("function"), line);
+            if (match(IMPORT)) return probe(importDeclaration(), line);
             return statement();
         } catch (ParseError error) {
             synchronize();
@@ -77,6 +89,17 @@ class Parser {
         return new Stmt.Var(name, initializer);
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        if (blockDepth > 0)
+            error(keyword, "Can only import at the top level.");
+
+        consume(STRING, "Expect module path after 'import'.");
+        String path = (String)tokens.literal(current - 1);
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt.Function funcDeclaration(String kind) {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
         
@@ -86,7 +109,7 @@ class Parser {
         if(!check(RIGHT_PAREN)) {
             do {
                 if (params.size() >= 255)
-                    error(peek(), "Can't have more than 255 parameters.");
+                    error(current, "Can't have more than 255 parameters.");
                 params.add(consume(IDENTIFIER, "Expect parameter name."));
             } while (match(COMMA));
         }
@@ -99,14 +122,21 @@ class Parser {
     }
 
     private Stmt statement() {
-        if (match(IF)) return ifStatement();
-        if (match(WHILE)) return whileStatement();
-        if (match(FOR)) return forStatement();
-        if (match(PRINT)) return printStatement();
-        if (match(BREAK)) return breakStatement();
-        if (match(RETURN)) return returnStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
-        return expressionStatement();
+        int line = tokens.line(current);
+        if (match(IMPORT)) throw error(current - 1, "Can only import at the top level.");
+        if (match(IF)) return probe(ifStatement(), line);
+        if (match(WHILE)) return probe(whileStatement(), line);
+        if (match(FOR)) return probe(forStatement(), line);
+        if (match(PRINT)) return probe(printStatement(), line);
+        if (match(BREAK)) return probe(breakStatement(), line);
+        if (match(RETURN)) return probe(returnStatement(), line);
+        if (match(LEFT_BRACE)) return probe(new Stmt.Block(block()), line);
+        return probe(expressionStatement(), line);
+    }
+
+    private Stmt probe(Stmt stmt, int line) {
+        if (coverage != null) stmt.probe = coverage.probe(line);
+        return stmt;
     }
     
     private Stmt ifStatement() {
@@ -123,6 +153,7 @@ class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after while condition.");
@@ -130,13 +161,14 @@ class Parser {
         try {
             loopDepth++;
             Stmt body = statement();
-            return new Stmt.While(condition, body);
+            return new Stmt.While(keyword, condition, body);
         } finally {
             loopDepth--;
         }
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -169,7 +201,7 @@ class Parser {
             if (condition == null)
                 condition = new Expr.Literal(true);
     
-            body = new Stmt.While(condition, body);
+            body = new Stmt.While(keyword, condition, body);
     
             if (initializer != null)
                 body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -188,7 +220,7 @@ class Parser {
 
     private Stmt breakStatement() {
         if (loopDepth == 0)
-            error(previous(), "Must be inside a loop to use 'break'.");
+            error(current - 1, "Must be inside a loop to use 'break'.");
         consume(SEMICOLON, "Expect ';' after break statement.");
         return new Stmt.Break();
     }
@@ -211,8 +243,13 @@ class Parser {
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
 
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+        try {
+            blockDepth++;
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+        } finally {
+            blockDepth--;
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
@@ -220,179 +257,276 @@ class Parser {
         return statements;
     }
 
+    // ----- Expressions -----
+    //
+    // Expressions are parsed by precedence climbing over a rule table, in the
+    // same shape as clox's ParseRule table, instead of one method per level.
+
+    private enum Precedence {
+        NONE,
+        COMMA,      // ,
+        ASSIGNMENT, // = += -=
+        TERNARY,    // ?:
+        OR,         // or
+        AND,        // and
+        EQUALITY,   // == !=
+        COMPARISON, // < > <= >=
+        TERM,       // + -
+        FACTOR,     // * /
+        UNARY,      // ! - ++ --
+        CALL,       // . () and postfix ++ --
+        PRIMARY;
+
+        private static final Precedence[] values = values();
+
+        Precedence next() {
+            return values[ordinal() + 1];
+        }
+    }
+
+    private interface PrefixFn {
+        Expr parse(Parser parser);
+    }
+
+    private interface InfixFn {
+        Expr parse(Parser parser, Expr left);
+    }
+
+    private static class ParseRule {
+        final PrefixFn prefix;
+        final InfixFn infix;
+        final Precedence precedence;
+
+        ParseRule(PrefixFn prefix, InfixFn infix, Precedence precedence) {
+            this.prefix = prefix;
+            this.infix = infix;
+            this.precedence = precedence;
+        }
+    }
+
+    private static final ParseRule[] rules = new ParseRule[TokenType.values().length];
+
+    static {
+        for (TokenType type : TokenType.values()) {
+            rule(type, null, null, Precedence.NONE);
+        }
+
+        rule(LEFT_PAREN,    Parser::grouping,      Parser::call,       Precedence.CALL);
+        rule(DOT,           null,                  Parser::dot,        Precedence.CALL);
+        rule(MINUS_MINUS,   Parser::prefixIncDec,  Parser::postfix,    Precedence.CALL);
+        rule(PLUS_PLUS,     Parser::prefixIncDec,  Parser::postfix,    Precedence.CALL);
+        rule(MINUS,         Parser::unary,         Parser::binary,     Precedence.TERM);
+        rule(BANG,          Parser::unary,         null,               Precedence.NONE);
+        rule(FALSE,         Parser::literal,       null,               Precedence.NONE);
+        rule(TRUE,          Parser::literal,       null,               Precedence.NONE);
+        rule(NIL,           Parser::literal,       null,               Precedence.NONE);
+        rule(NUMBER,        Parser::literal,       null,               Precedence.NONE);
+        rule(STRING,        Parser::literal,       null,               Precedence.NONE);
+        rule(THIS,          Parser::thisExpr,      null,               Precedence.NONE);
+        rule(SUPER,         Parser::superExpr,     null,               Precedence.NONE);
+        rule(IDENTIFIER,    Parser::variable,      null,               Precedence.NONE);
+
+        // Binary operators with an error production for a missing left-hand side
+        rule(COMMA,         p -> p.missing("Missing left-hand expression", Precedence.COMMA),
+                            Parser::binary,        Precedence.COMMA);
+        rule(EQUAL,         p -> p.missing("Missing left-hand assignment target", Precedence.ASSIGNMENT),
+                            Parser::assignment,    Precedence.ASSIGNMENT);
+        rule(PLUS_EQUAL,    p -> p.missing("Missing left-hand assignment target", Precedence.ASSIGNMENT),
+                            Parser::assignment,    Precedence.ASSIGNMENT);
+        rule(MINUS_EQUAL,   p -> p.missing("Missing left-hand assignment target", Precedence.ASSIGNMENT),
+                            Parser::assignment,    Precedence.ASSIGNMENT);
+        rule(QUESTION,      Parser::missingCondition,
+                            Parser::ternary,       Precedence.TERNARY);
+        rule(OR,            p -> p.missing("Missing left-hand operand", Precedence.OR),
+                            Parser::logical,       Precedence.OR);
+        rule(AND,           p -> p.missing("Missing left-hand operand", Precedence.AND),
+                            Parser::logical,       Precedence.AND);
+        rule(BANG_EQUAL,    p -> p.missing("Missing left-hand operand", Precedence.EQUALITY),
+                            Parser::binary,        Precedence.EQUALITY);
+        rule(EQUAL_EQUAL,   p -> p.missing("Missing left-hand operand", Precedence.EQUALITY),
+                            Parser::binary,        Precedence.EQUALITY);
+        rule(GREATER,       p -> p.missing("Missing left-hand operand", Precedence.TERM),
+                            Parser::binary,        Precedence.COMPARISON);
+        rule(GREATER_EQUAL, p -> p.missing("Missing left-hand operand", Precedence.TERM),
+                            Parser::binary,        Precedence.COMPARISON);
+        rule(LESS,          p -> p.missing("Missing left-hand operand", Precedence.TERM),
+                            Parser::binary,        Precedence.COMPARISON);
+        rule(LESS_EQUAL,    p -> p.missing("Missing left-hand operand", Precedence.TERM),
+                            Parser::binary,        Precedence.COMPARISON);
+        rule(PLUS,          p -> p.missing("Missing left-hand operand", Precedence.TERM),
+                            Parser::binary,        Precedence.TERM);
+        rule(SLASH,         p -> p.missing("Missing left-hand operand", Precedence.FACTOR),
+                            Parser::binary,        Precedence.FACTOR);
+        rule(STAR,          p -> p.missing("Missing left-hand operand", Precedence.FACTOR),
+                            Parser::binary,        Precedence.FACTOR);
+    }
+
+    private static void rule(TokenType type, PrefixFn prefix, InfixFn infix, Precedence precedence) {
+        rules[type.ordinal()] = new ParseRule(prefix, infix, precedence);
+    }
+
+    private static boolean isUnaryOperator(TokenType type) {
+        return type == BANG || type == MINUS || type == MINUS_MINUS || type == PLUS_PLUS;
+    }
+
     private Expr expression() {
-        return multi();
+        return parsePrecedence(Precedence.COMMA);
     }
 
-    private Expr multi() {
-        Expr expr = assignment();
+    private Expr parsePrecedence(Precedence precedence) {
+        TokenType prefixType = tokens.type(current);
+        PrefixFn prefix = rules[prefixType.ordinal()].prefix;
+        if (prefix == null)
+            throw error(current, "Expect expression.");
 
-        while(match(COMMA)) {
-            Token operator = previous();
-            Expr right = assignment();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+        current++;
+        Expr expr = prefix.parse(this);
 
-        return expr;
-    }
+        // Calls, property access and postfix operators only bind to a primary
+        // expression. A postfix operator must come directly after it, and
+        // nothing else binds once one has been applied.
+        boolean canCall = !isUnaryOperator(prefixType);
+        boolean canPostfix = canCall;
 
-    private Expr assignment() {
-        Expr expr = ternary();
-        
-        if (match(EQUAL, PLUS_EQUAL, MINUS_EQUAL)) {
-            Token operator = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Var) {
-                Token name = ((Expr.Var)expr).name;
-                return new Expr.Assign(name, operator, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
+        while (true) {
+            TokenType type = tokens.type(current);
+            ParseRule rule = rules[type.ordinal()];
+            if (precedence.compareTo(rule.precedence) > 0) break;
+
+            if (rule.precedence == Precedence.CALL) {
+                boolean isPostfix = type == MINUS_MINUS || type == PLUS_PLUS;
+                if (isPostfix ? !canPostfix : !canCall) break;
+                if (isPostfix) canCall = false;
+            } else {
+                canCall = false;
             }
+            canPostfix = false;
 
-            error(operator, "Invalid assignment target.");
+            current++;
+            expr = rule.infix.parse(this, expr);
         }
 
         return expr;
     }
 
-    private Expr ternary() {
-        Expr expr = or();
-
-        if(match(QUESTION)) {
-            // According to the C precendence table, the then clause takes precedence
-            // over the whole ternary, as if it were parenthesized. Therefore,
-            // this portion should be read as an expression, and not an equality
-            Expr thenBranch = expression();
-            consume(COLON, "Expect ':' after then branch of ternary statement.");
-            Expr elseClause = ternary();
-            expr = new Expr.Ternary(expr, thenBranch, elseClause);
-        }
+    private Expr binary(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(rules[operator.type.ordinal()].precedence.next());
+        return new Expr.Binary(left, operator, right);
+    }
 
-        return expr;
+    private Expr logical(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(rules[operator.type.ordinal()].precedence.next());
+        return new Expr.Logical(left, operator, right);
     }
 
-    private Expr or() {
-        Expr expr = and();
+    private Expr assignment(Expr expr) {
+        Token operator = previous();
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+        if (expr instanceof Expr.Var) {
+            Token name = ((Expr.Var)expr).name;
+            return new Expr.Assign(name, operator, value);
+        } else if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr;
+            return new Expr.Set(get.object, get.name, value);
         }
 
+        error(operator, "Invalid assignment target.");
         return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
+    private Expr ternary(Expr condition) {
+        // According to the C precendence table, the then clause takes precedence
+        // over the whole ternary, as if it were parenthesized. Therefore,
+        // this portion should be read as an expression, and not an equality
+        Expr thenBranch = expression();
+        consume(COLON, "Expect ':' after then branch of ternary statement.");
+        Expr elseClause = parsePrecedence(Precedence.TERNARY);
+        return new Expr.Ternary(condition, thenBranch, elseClause);
+    }
 
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
+    private Expr unary() {
+        Token operator = previous();
+        Expr right = parsePrecedence(Precedence.UNARY);
+        return new Expr.Unary(operator, right);
+    }
 
-        return expr;
+    private Expr prefixIncDec() {
+        Token operator = previous();
+        Expr right = parsePrecedence(Precedence.UNARY);
+        // NOTE: This causes failure on double negation; maybe make test patch later
+        // Temp fix is return right expr here instead
+        return buildIncDec(operator, right);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    private Expr postfix(Expr expr) {
+        Token operator = previous();
+        // x++ is (x += 1) - 1, and x-- is (x -= 1) + 1
+        Token inverse = operator.type == MINUS_MINUS ?
+            new Token(PLUS, "+", null, operator.line) :
+            new Token(MINUS, "-", null, operator.line);
+        return new Expr.Binary(
+            new Expr.Grouping(buildIncDec(operator, expr)),
+            inverse,
+            new Expr.Literal(1.0));
+    }
 
-        while(match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    private Expr call(Expr callee) {
+        return finishCall(callee);
+    }
 
-        return expr;
+    private Expr dot(Expr object) {
+        Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+        return new Expr.Get(object, name);
     }
 
-    private Expr comparison() {
-        Expr expr = term();
+    private Expr grouping() {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
+    }
 
-        while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr literal() {
+        switch (tokens.type(current - 1)) {
+            case FALSE: return new Expr.Literal(false);
+            case TRUE: return new Expr.Literal(true);
+            case NIL: return new Expr.Literal(null);
+            default: return new Expr.Literal(tokens.literal(current - 1));
         }
-
-        return expr;
     }
 
-    private Expr term() {
-        Expr expr = factor();
-
-        while(match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    private Expr thisExpr() {
+        return new Expr.This(previous());
+    }
 
-        return expr;
+    private Expr superExpr() {
+        Token keyword = previous();
+        consume(DOT, "Expect '.' after 'super'.");
+        Token method = consume(IDENTIFIER, "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
     }
 
-    private Expr factor() {
-        Expr expr = unary();
+    private Expr variable() {
+        return new Expr.Var(previous());
+    }
 
-        while(match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    // ----- Error Productions -----
 
-        return expr;
+    private Expr missing(String message, Precedence operand) {
+        error(current - 1, message);
+        parsePrecedence(operand);
+        return null;
     }
 
-    private Expr unary() {
-        if (match(BANG, MINUS, MINUS_MINUS, PLUS_PLUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            switch (operator.type) {
-                case BANG:
-                case MINUS:
-                    return new Expr.Unary(operator, right);
-                case MINUS_MINUS:
-                case PLUS_PLUS:
-                    // NOTE: This causes failure on double negation; maybe make test patch later
-                    // Temp fix is return right expr here instead
-                    return buildIncDec(operator, right);
-                default:
-            }
-        }
-        
-        return post();    
-    }
-
-    private Expr post(){
-        Expr expr = primary();
-        if (match(MINUS_MINUS)) {
-            Token operator = previous();
-            return new Expr.Binary(
-                new Expr.Grouping(buildIncDec(operator, expr)), 
-                new Token(PLUS, "+", null, operator.line), 
-                new Expr.Literal(1.0));
-        } else if (match(PLUS_PLUS)) {
-            Token operator = previous();
-            // (x += 1) - 1
-            return new Expr.Binary(
-                new Expr.Grouping(buildIncDec(operator, expr)), 
-                new Token(MINUS, "-", null, operator.line), 
-                new Expr.Literal(1.0));
-        } else while (true) {
-            if(match(LEFT_PAREN)){
-                expr = finishCall(expr);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                // TODO: Catch error here?
-                break;
-            }
-        }
-
-        return expr;
+    // Ternary (QUESTION only, a leading COLON will get passed to default error)
+    private Expr missingCondition() {
+        error(current - 1, "Missing left-hand condition");
+        expression();
+        consume(COLON, "Expect ':' after then branch of ternary statement.");
+        parsePrecedence(Precedence.TERNARY);
+        return null;
     }
 
     private Expr buildIncDec(Token operator, Expr expr) {
@@ -412,8 +546,8 @@ class Parser {
         if (!check(RIGHT_PAREN)) {
             do {
                 if (arguments.size() >= 255)
-                    error(peek(), "Can't have more than 255 arguments.");
-                arguments.add(assignment());
+                    error(current, "Can't have more than 255 arguments.");
+                arguments.add(parsePrecedence(Precedence.ASSIGNMENT));
             } while (match(COMMA));
         }
         
@@ -422,110 +556,10 @@ class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
-    private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(THIS)) {
-            return new Expr.This(previous());
-        }
-
-        if (match(SUPER)) {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
-
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-
-        if (match(IDENTIFIER)) {
-            return new Expr.Var(previous());
-        }
-
-        // ----- Error Productions -----
-        
-        // Multi
-        if (match(COMMA)) {
-            error(previous(), "Missing left-hand expression");
-            multi();
-            return null;
-        }
-
-        // Assignment
-        if (match(EQUAL, MINUS_EQUAL, PLUS_EQUAL)) {
-            error(previous(), "Missing left-hand assignment target");
-            assignment();
-            return null;
-        }
-
-        // Ternary (QUESTION only, a leading COLON will get passed to default error)
-        if (match(QUESTION)) {
-            error(previous(), "Missing left-hand condition");
-            expression();
-            consume(COLON, "Expect ':' after then branch of ternary statement.");
-            ternary();
-            return null;
-        }
-
-        // Or
-        if (match(OR)) {
-            error(previous(), "Missing left-hand operand");
-            or();
-            return null;
-        }
-
-        // And
-        if (match(AND)) {
-            error(previous(), "Missing left-hand operand");
-            and();
-            return null;
-        }
-        
-        // Equality
-        if (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            error(previous(), "Missing left-hand operand");
-            equality();
-            return null;
-        }
-
-        // Comparison
-        if (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            error(previous(), "Missing left-hand operand");
-            term();
-            return null;
-        }
-
-        // Term
-        if (match(PLUS)) {
-            error(previous(), "Missing left-hand operand");
-            term();
-            return null;
-        }
-
-        // Factor
-        if (match(SLASH, STAR)) {
-            error(previous(), "Missing left-hand operand");
-            factor();
-            return null;
-        }
-
-        throw error(peek(), "Expect expression.");
-    }
-
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
             if(check(type)) {
-                advance();
+                current++;
                 return true;
             }
         }
@@ -535,13 +569,14 @@ class Parser {
     private Token consume(TokenType type, String message) {
         if(check(type)) return advance();
 
-        throw error(peek(), message);
+        throw error(current, message);
     }
 
     private boolean check(TokenType... types) {
         if (isAtEnd()) return false;
+        TokenType next = tokens.type(current);
         for (TokenType type : types) {
-            if (peek().type == type)
+            if (next == type)
                 return true;
         }
         return false;
@@ -553,15 +588,11 @@ class Parser {
     }
     
     private boolean isAtEnd() {
-        return peek().type == EOF;
-    }
-
-    private Token peek() {
-        return tokens.get(current);
+        return tokens.type(current) == EOF;
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
@@ -569,15 +600,21 @@ class Parser {
         return new ParseError();
     }
 
+    private ParseError error(int index, String message) {
+        Lox.error(tokens, index, message);
+        return new ParseError();
+    }
+
     private void synchronize() {
-        advance();
+        if (!isAtEnd()) current++;
         
         while(!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
+            if (tokens.type(current - 1) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
+                case IMPORT:
                 case VAR:
                 case FOR:
                 case IF:
@@ -588,7 +625,7 @@ class Parser {
                 default:
             }
 
-            advance();
+            current++;
         }
     }
 
@@ -0,0 +1,49 @@
+package jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock timings of the phases of a run, printed by --timings.
+ *
+ * Each lap is charged to the phase that just finished. The first lap covers
+ * JVM startup, taken from the JVM's own uptime, so the report accounts for
+ * the whole run rather than just our own code.
+ */
+class PhaseTimer {
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> nanos = new ArrayList<>();
+    private long last;
+
+    PhaseTimer() {
+        phases.add("jvm");
+        nanos.add(TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime()));
+        last = System.nanoTime();
+    }
+
+    // Charges the time since the previous lap to this phase
+    void lap(String phase) {
+        long now = System.nanoTime();
+        int index = phases.indexOf(phase);
+        if (index < 0) {
+            phases.add(phase);
+            nanos.add(now - last);
+        } else {
+            nanos.set(index, nanos.get(index) + now - last);
+        }
+        last = now;
+    }
+
+    void report() {
+        long total = 0;
+        for (long time : nanos) total += time;
+
+        System.err.println("phase         ms");
+        for (int i = 0; i < phases.size(); i++) {
+            System.err.printf("%-10s %5.1f\n", phases.get(i), nanos.get(i) / 1e6);
+        }
+        System.err.printf("%-10s %5.1f\n", "total", total / 1e6);
+    }
+}
@@ -0,0 +1,229 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler for Lox code, enabled with --profile.
+ *
+ * Each interpreter keeps a shadow stack of the Lox functions it is
+ * running: entering a function stores its declaration in an array and
+ * bumps the depth, nothing more. The interpreters of spawned tasks and of
+ * parallel list slices get stacks of their own from the same profiler. A
+ * daemon thread wakes up at a fixed interval and copies every stack that
+ * has Lox code on it, each copy counting as a sample, so a script running
+ * on four threads gathers four samples a tick. The copies are
+ * unsynchronized, so a sample taken while a call is being entered or left
+ * may be off by a frame, which doesn't matter in aggregate and keeps the
+ * interpreter side cheap.
+ *
+ * Results are written in the collapsed-stack format read by flamegraph.pl
+ * and speedscope, one "frame;frame;frame count" line per distinct stack,
+ * and summarized as a table of the functions with the most self time.
+ * Native functions are charged to their caller.
+ */
+class Profiler {
+    private static final int TOP = 20;
+
+    private final long intervalNanos;
+    private final Thread sampler;
+    private volatile boolean running = false;
+
+    // The stacks handed out; weakly held, since slice interpreters come and go
+    private final List<WeakReference<Stack>> stacks = new ArrayList<>();
+
+    // Owned by the sampler thread until it is stopped
+    private final Node root = new Node(null);
+    private final Map<Object, String> labels = new IdentityHashMap<>();
+    private long samples = 0;
+
+    // Samples are counted in a call tree so taking one never allocates
+    private static class Node {
+        final Object frame;
+        final Map<Object, Node> children = new IdentityHashMap<>();
+        long self = 0;
+
+        Node(Object frame) {
+            this.frame = frame;
+        }
+
+        Node child(Object frame) {
+            Node child = children.get(frame);
+            if (child == null) {
+                child = new Node(frame);
+                children.put(frame, child);
+            }
+            return child;
+        }
+    }
+
+    Profiler(long intervalMicros) {
+        this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+        this.sampler = new Thread(this::sample, "jlox-profiler");
+        sampler.setDaemon(true);
+    }
+
+    /** The shadow stack of one interpreter, written only by the thread running it. */
+    static final class Stack {
+        private final Profiler profiler;
+        private Object[] frames = new Object[64];
+        private volatile int depth = 0;
+
+        private Stack(Profiler profiler) {
+            this.profiler = profiler;
+        }
+
+        /**
+         * Pushes a frame: a Stmt.Function for Lox functions, or a String naming
+         * top-level code.
+         */
+        void enter(Object frame) {
+            int top = depth;
+            if (top == frames.length) frames = Arrays.copyOf(frames, top * 2);
+            frames[top] = frame;
+            depth = top + 1;
+        }
+
+        void exit() {
+            depth = depth - 1;
+        }
+
+        // A stack of the same profiler, for an interpreter running on another thread
+        Stack fork() {
+            return profiler.stack();
+        }
+    }
+
+    Stack stack() {
+        Stack stack = new Stack(this);
+        synchronized (stacks) {
+            stacks.add(new WeakReference<>(stack));
+        }
+        return stack;
+    }
+
+    void start() {
+        running = true;
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+
+            synchronized (stacks) {
+                for (Iterator<WeakReference<Stack>> it = stacks.iterator(); it.hasNext(); ) {
+                    Stack stack = it.next().get();
+                    if (stack == null) {
+                        it.remove();
+                    } else {
+                        sample(stack);
+                    }
+                }
+            }
+        }
+    }
+
+    private void sample(Stack stack) {
+        int top = stack.depth;
+        Object[] snapshot = stack.frames;
+        if (top == 0) return;
+        top = Math.min(top, snapshot.length);
+
+        Node node = root;
+        for (int i = 0; i < top; i++) {
+            node = node.child(snapshot[i]);
+        }
+        node.self++;
+        samples++;
+    }
+
+    private String label(Object frame) {
+        String label = labels.get(frame);
+        if (label == null) {
+            if (frame instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function)frame;
+                label = function.name.lexeme + ":" + function.name.line;
+            } else {
+                label = String.valueOf(frame);
+            }
+            labels.put(frame, label);
+        }
+        return label;
+    }
+
+    void writeCollapsed(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (Node child : root.children.values()) writeCollapsed(out, child, "");
+        }
+    }
+
+    private void writeCollapsed(PrintWriter out, Node node, String parent) {
+        String stack = parent.isEmpty() ? label(node.frame) : parent + ";" + label(node.frame);
+        if (node.self > 0) out.println(stack + " " + node.self);
+        for (Node child : node.children.values()) writeCollapsed(out, child, stack);
+    }
+
+    void report() {
+        if (samples == 0) {
+            System.err.println("No samples; the script finished too quickly.");
+            return;
+        }
+
+        Map<String, Long> self = new HashMap<>();
+        Map<String, Long> total = new HashMap<>();
+        for (Node child : root.children.values()) tally(child, self, total, new HashMap<>());
+
+        List<String> functions = new ArrayList<>(total.keySet());
+        functions.sort((a, b) -> {
+            int bySelf = Long.compare(self.getOrDefault(b, 0L), self.getOrDefault(a, 0L));
+            return bySelf != 0 ? bySelf : Long.compare(total.get(b), total.get(a));
+        });
+
+        System.err.printf("%d samples every %d us\n", samples, TimeUnit.NANOSECONDS.toMicros(intervalNanos));
+        System.err.println("  self%  total%  function");
+        for (String function : functions.subList(0, Math.min(TOP, functions.size()))) {
+            System.err.printf("%6.1f  %6.1f  %s\n",
+                100.0 * self.getOrDefault(function, 0L) / samples,
+                100.0 * total.get(function) / samples,
+                function);
+        }
+    }
+
+    // Returns the samples under this node; recursive calls count once toward total time
+    private long tally(Node node, Map<String, Long> self, Map<String, Long> total, Map<String, Integer> active) {
+        String label = label(node.frame);
+        self.merge(label, node.self, Long::sum);
+
+        active.merge(label, 1, Integer::sum);
+        long samples = node.self;
+        for (Node child : node.children.values()) samples += tally(child, self, total, active);
+        if (active.merge(label, -1, Integer::sum) == 0) {
+            active.remove(label);
+            total.merge(label, samples, Long::sum);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,52 @@
+package jlox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed and resolved script, for embedding the interpreter.
+ *
+ * A Program is immutable once compiled and can be shared freely: any
+ * number of interpreters, on any threads, may execute the same Program at
+ * the same time, each in its own globals. Functions and classes it defines
+ * belong to the interpreter that ran the definition, not to the Program.
+ *
+ *     Program program = Program.compile(source);
+ *     Interpreter interpreter = new Interpreter(out, err);
+ *     boolean ok = interpreter.execute(program);
+ *
+ * Compiling is thread-safe too. Errors and warnings are collected for the
+ * calling thread instead of being printed.
+ */
+public final class Program {
+    final List<Stmt> statements;
+    private final String warnings;
+
+    private Program(List<Stmt> statements, String warnings) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.warnings = warnings;
+    }
+
+    /**
+     * Scans, parses and resolves the source. Throws CompileError, carrying
+     * every error message, if the source doesn't compile.
+     */
+    public static Program compile(String source) throws CompileError {
+        Lox.Diagnostics diagnostics = new Lox.Diagnostics();
+        List<Stmt> statements;
+        Lox.capture(diagnostics);
+        try {
+            statements = Lox.compile(source, null);
+        } finally {
+            Lox.capture(null);
+        }
+
+        if (statements == null) throw new CompileError(diagnostics.messages(), diagnostics.firstErrorLine);
+        return new Program(statements, diagnostics.hadWarning ? diagnostics.messages() : "");
+    }
+
+    /** Warnings reported while compiling, one per line, or an empty string. */
+    public String warnings() {
+        return warnings;
+    }
+}
@@ -0,0 +1,123 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of compiled programs.
+ *
+ * Each entry is a FlatAst, including resolver distances and line numbers,
+ * stored in a file named after the SHA-256 of the source text. The header
+ * holds the format version and FlatAst's fingerprint of the token types
+ * and node kinds, so entries written by a different build are misses. Entries are
+ * memory mapped when loaded, and written to a temporary file and moved into
+ * place so concurrent runs never see a partial entry.
+ */
+class ProgramCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final int VERSION = 3;
+    private static final int FINGERPRINT = FlatAst.fingerprint();
+    private static final String EXTENSION = ".loxc";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+
+    ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    static Path defaultDirectory() {
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        Path base = xdg != null && !xdg.isEmpty()
+            ? Paths.get(xdg)
+            : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("jlox");
+    }
+
+    /**
+     * Returns the cached program for this source, or null if there is no
+     * usable entry. Unreadable or stale entries are treated as misses.
+     */
+    FlatAst load(String source) {
+        Path path = entry(source);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != FINGERPRINT) return null;
+            return FlatAst.fromBytes(buffer);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a compiled program. Failing to write the cache never fails the run.
+     */
+    void store(String source, FlatAst program) {
+        Path path = entry(source);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.putInt(MAGIC).putInt(VERSION).putInt(FINGERPRINT).flip();
+            ByteBuffer body = program.toBytes();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) channel.write(header);
+                while (body.hasRemaining()) channel.write(body);
+            }
+
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    void clear() throws IOException {
+        if (!Files.isDirectory(directory)) return;
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path entry : entries) {
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    private Path entry(String source) {
+        return directory.resolve(hash(source) + EXTENSION);
+    }
+
+    private static String hash(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            // Hex by hand; String.format is slow the first time it is used
+            char[] hex = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new AssertionError(e);
+        }
+    }
+}
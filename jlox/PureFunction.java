@@ -0,0 +1,55 @@
+package jlox;
+
+/**
+ * A function the script has declared pure with pure(fn), for when the
+ * analysis in Purity can't tell, such as calls through a method. Calling it
+ * calls the function. The script also promises that a two-argument pure
+ * function is associative, which is what lets List.reduce run in parallel.
+ */
+class PureFunction implements LoxCallable {
+    final LoxCallable function;
+
+    PureFunction(LoxCallable function) {
+        this.function = function;
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return function.call(interpreter, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return function.call0(interpreter);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return function.call1(interpreter, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return function.call2(interpreter, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return function.call3(interpreter, a, b, c);
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
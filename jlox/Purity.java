@@ -0,0 +1,259 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides whether a function is pure: calling it has no effect that
+ * anything outside the call can see. The body must not print, write a
+ * field, assign a variable declared outside the function, import a module
+ * or declare a class, and everything it calls must be pure in turn.
+ *
+ * Callees are looked up by name through the function's closure when the
+ * analysis runs; rebinding them afterwards isn't noticed. A callee is pure
+ * if it is a function that passes the same test (recursion counts as pure)
+ * or a native that says so, including a method of a bound Java class.
+ * Calls through a local variable, a Lox method or an expression are never
+ * pure, since what they call isn't known until then.
+ *
+ * A deterministic function is pure and also returns the same result for
+ * the same arguments, so Memoizer may cache it: besides the functions it
+ * calls, it reads only its own variables, never fields, this, super or
+ * other variables from outside, and it declares no functions, whose
+ * closures could differ from call to call. What it calls must be
+ * deterministic too: a function passing the same test, whether or not it
+ * is wrapped with pure(), or a native that says so, which pure natives
+ * needn't.
+ */
+class Purity implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+    private final LoxFunction function;
+    private final boolean deterministic;
+
+    // Functions being analyzed further up this call chain, assumed pure
+    private final Set<Stmt.Function> analyzing;
+
+    // Names declared by the function and the blocks and functions nested in it
+    private final List<Set<String>> scopes = new ArrayList<>();
+
+    private Purity(LoxFunction function, boolean deterministic, Set<Stmt.Function> analyzing) {
+        this.function = function;
+        this.deterministic = deterministic;
+        this.analyzing = analyzing;
+    }
+
+    static boolean isPure(LoxFunction function) {
+        return analyze(function, false, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    static boolean isDeterministic(LoxFunction function) {
+        return analyze(function, true, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static boolean analyze(LoxFunction function, boolean deterministic, Set<Stmt.Function> analyzing) {
+        Stmt.Function declaration = function.declaration();
+        if (!analyzing.add(declaration)) return true;
+        try {
+            return new Purity(function, deterministic, analyzing).body(declaration);
+        } finally {
+            analyzing.remove(declaration);
+        }
+    }
+
+    private boolean body(Stmt.Function declaration) {
+        Set<String> scope = new HashSet<>();
+        for (Token param : declaration.params) scope.add(param.lexeme);
+        scopes.add(scope);
+        try {
+            return all(declaration.body);
+        } finally {
+            scopes.remove(scopes.size() - 1);
+        }
+    }
+
+    private boolean all(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!statement.accept(this)) return false;
+        }
+        return true;
+    }
+
+    private boolean isLocal(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).contains(name)) return true;
+        }
+        return false;
+    }
+
+    private void declare(String name) {
+        scopes.get(scopes.size() - 1).add(name);
+    }
+
+    private boolean isPureCallee(Expr callee) {
+        // A method of a bound Java class, as in Geometry.area(w, h)
+        if (callee instanceof Expr.Get && ((Expr.Get)callee).object instanceof Expr.Var) {
+            Object value = lookUp(((Expr.Var)((Expr.Get)callee).object).name);
+            if (!(value instanceof NativeBinding.JavaClass)) return false;
+            return isPureFunction(((NativeBinding.JavaClass)value).function(((Expr.Get)callee).name.lexeme));
+        }
+
+        if (!(callee instanceof Expr.Var)) return false;
+        return isPureFunction(lookUp(((Expr.Var)callee).name));
+    }
+
+    private boolean isPureFunction(Object value) {
+        if (value instanceof LoxFunction) return analyze((LoxFunction)value, deterministic, analyzing);
+        // pure(fn) only promises no side effects; fn may still read state that changes
+        if (deterministic && value instanceof PureFunction) return isPureFunction(((PureFunction)value).function);
+        if (!(value instanceof LoxCallable)) return false;
+        return deterministic ? ((LoxCallable)value).isDeterministic() : ((LoxCallable)value).isPure();
+    }
+
+    // What a name outside the function refers to now, or null
+    private Object lookUp(Token name) {
+        if (isLocal(name.lexeme)) return null;
+        try {
+            return function.closure().get(name);
+        } catch (RuntimeError error) {
+            return null;
+        }
+    }
+
+    @Override
+    public Boolean visit(Expr.Assign expr) {
+        return isLocal(expr.name.lexeme) && expr.value.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.Binary expr) {
+        return expr.left.accept(this) && expr.right.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.Call expr) {
+        if (!isPureCallee(expr.callee)) return false;
+        for (Expr argument : expr.arguments) {
+            if (!argument.accept(this)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean visit(Expr.Get expr) {
+        return !deterministic && expr.object.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.Literal expr) {
+        return true;
+    }
+
+    @Override
+    public Boolean visit(Expr.Logical expr) {
+        return expr.left.accept(this) && expr.right.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.Set expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visit(Expr.Super expr) {
+        return !deterministic;
+    }
+
+    @Override
+    public Boolean visit(Expr.Ternary expr) {
+        return expr.condition.accept(this) && expr.thenBranch.accept(this) && expr.elseClause.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.This expr) {
+        return !deterministic;
+    }
+
+    @Override
+    public Boolean visit(Expr.Unary expr) {
+        return expr.right.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Expr.Var expr) {
+        return !deterministic || isLocal(expr.name.lexeme);
+    }
+
+    @Override
+    public Boolean visit(Stmt.Block stmt) {
+        scopes.add(new HashSet<>());
+        try {
+            return all(stmt.statements);
+        } finally {
+            scopes.remove(scopes.size() - 1);
+        }
+    }
+
+    @Override
+    public Boolean visit(Stmt.Class stmt) {
+        return false;
+    }
+
+    @Override
+    public Boolean visit(Stmt.Break stmt) {
+        return true;
+    }
+
+    @Override
+    public Boolean visit(Stmt.Expression stmt) {
+        return stmt.expression.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Stmt.Function stmt) {
+        // A nested function may assign the variables of this one; only its calls have to be pure
+        if (deterministic) return false;
+        declare(stmt.name.lexeme);
+        return body(stmt);
+    }
+
+    @Override
+    public Boolean visit(Stmt.If stmt) {
+        return stmt.condition.accept(this) && stmt.thenBranch.accept(this)
+            && (stmt.elseBranch == null || stmt.elseBranch.accept(this));
+    }
+
+    @Override
+    public Boolean visit(Stmt.Import stmt) {
+        return false;
+    }
+
+    @Override
+    public Boolean visit(Stmt.Print stmt) {
+        return false;
+    }
+
+    @Override
+    public Boolean visit(Stmt.Return stmt) {
+        return stmt.value == null || stmt.value.accept(this);
+    }
+
+    @Override
+    public Boolean visit(Stmt.Var stmt) {
+        if (stmt.initializer != null && !stmt.initializer.accept(this)) return false;
+        declare(stmt.name.lexeme);
+        return true;
+    }
+
+    @Override
+    public Boolean visit(Stmt.While stmt) {
+        return stmt.condition.accept(this) && stmt.body.accept(this);
+    }
+}
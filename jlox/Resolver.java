@@ -10,12 +10,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // This flag is used to appease the testing suite
     boolean test = Global.test; 
 
-    private final Interpreter interpreter;
     private final Stack<Map<String, Variable>> scopes = new Stack<>();
-    
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
 
     private enum FunctionType { NONE, FUNCTION, INIT, METHOD }
     private FunctionType currentFunction = FunctionType.NONE;
@@ -125,6 +120,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visit(Stmt.Import stmt) {
+        // Modules are resolved on their own when they are loaded
+        return null;
+    }
+
     @Override
     public Void visit(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -299,7 +300,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveLocal(Expr expr, Token name, boolean isRead) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+                expr.depth = scopes.size() - 1 - i;
 
                 // Mark it used.
                 if (isRead) {
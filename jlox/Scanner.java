@@ -2,10 +2,7 @@ package jlox;
 
 import static jlox.TokenType.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map; 
 
 public class Scanner {
 
@@ -13,46 +10,27 @@ public class Scanner {
     boolean test = Global.test; 
 
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and",    AND);
-        keywords.put("break",  BREAK);
-        keywords.put("class",  CLASS);
-        keywords.put("else",   ELSE);
-        keywords.put("false",  FALSE);
-        keywords.put("for",    FOR);
-        keywords.put("fun",    FUN);
-        keywords.put("if",     IF);
-        keywords.put("nil",    NIL);
-        keywords.put("or",     OR);
-        keywords.put("print",  PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("static", STATIC);
-        keywords.put("super",  SUPER);
-        keywords.put("this",   THIS);
-        keywords.put("true",   TRUE);
-        keywords.put("var",    VAR);
-        keywords.put("while",  WHILE);
-    }
-
     Scanner(String source) {
         this.source = source;
+        this.tokens = new TokenBuffer(source);
     }
 
     List<Token> scanTokens() {
+        return scanBuffer().toList();
+    }
+
+    TokenBuffer scanBuffer() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
     
-        tokens.add(new Token(EOF, "", null, line));
+        tokens.add(EOF, current, 0, line);
         return tokens;
     }
 
@@ -132,10 +110,68 @@ public class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
     
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        addToken(identifierType(source, start, current - start));
+    }
+
+    // Keywords are matched with a hand-written trie over the source characters,
+    // as in clox, so no substring is allocated per identifier.
+    static TokenType identifierType(String source, int start, int length) {
+        switch (source.charAt(start)) {
+            case 'a': return checkKeyword(source, start, length, 1, "nd", AND);
+            case 'b': return checkKeyword(source, start, length, 1, "reak", BREAK);
+            case 'c': return checkKeyword(source, start, length, 1, "lass", CLASS);
+            case 'e': return checkKeyword(source, start, length, 1, "lse", ELSE);
+            case 'f':
+                if (length > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'a': return checkKeyword(source, start, length, 2, "lse", FALSE);
+                        case 'o': return checkKeyword(source, start, length, 2, "r", FOR);
+                        case 'u': return checkKeyword(source, start, length, 2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (length > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'f': return checkKeyword(source, start, length, 2, "", IF);
+                        case 'm': return checkKeyword(source, start, length, 2, "port", IMPORT);
+                    }
+                }
+                break;
+            case 'n': return checkKeyword(source, start, length, 1, "il", NIL);
+            case 'o': return checkKeyword(source, start, length, 1, "r", OR);
+            case 'p': return checkKeyword(source, start, length, 1, "rint", PRINT);
+            case 'r': return checkKeyword(source, start, length, 1, "eturn", RETURN);
+            case 's':
+                if (length > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 't': return checkKeyword(source, start, length, 2, "atic", STATIC);
+                        case 'u': return checkKeyword(source, start, length, 2, "per", SUPER);
+                    }
+                }
+                break;
+            case 't':
+                if (length > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'h': return checkKeyword(source, start, length, 2, "is", THIS);
+                        case 'r': return checkKeyword(source, start, length, 2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(source, start, length, 1, "ar", VAR);
+            case 'w': return checkKeyword(source, start, length, 1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private static TokenType checkKeyword(String source, int start, int length,
+            int offset, String rest, TokenType type) {
+        if (length == offset + rest.length() &&
+            source.regionMatches(start + offset, rest, 0, rest.length())) {
+            return type;
+        }
+
+        return IDENTIFIER;
     }
 
     private void number() {
@@ -146,7 +182,7 @@ public class Scanner {
             while (isDigit(peek())) advance();
         }
     
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER);
     }
 
     private void string() {
@@ -163,15 +199,17 @@ public class Scanner {
         // The closing ".
         advance();
     
-        // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
-        value = value
+        // The literal value is unescaped lazily by the token buffer.
+        addToken(STRING);
+    }
+
+    static String unescape(String value) {
+        return value
             .replaceAll("\\\\n", "\n")
             .replaceAll("\\\\t", "\t")
             .replaceAll("\\\\r", "\r")
             .replaceAll("\\\\b", "\b")
             .replaceAll("\\\\f", "\f");
-        addToken(STRING, value);
     }
 
     private boolean isAlpha(char c) {
@@ -213,11 +251,6 @@ public class Scanner {
     } 
     
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current - start, line);
     }
 }
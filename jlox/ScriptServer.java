@@ -0,0 +1,331 @@
+package jlox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs scripts sent by clients, for --serve.
+ *
+ * A long-lived JVM saves every job the JVM startup, and scripts run on
+ * compiled interpreter code instead of cold: before its first job each
+ * worker thread runs a warmup program until the JIT has compiled the hot
+ * paths of the interpreter. Jobs that arrive meanwhile wait in the queue.
+ * Every job then gets a fresh interpreter, so no globals carry over from
+ * one job to the next, and compiled programs are kept in an LRU cache
+ * keyed by source text, so a script that hasn't changed is never scanned,
+ * parsed or resolved again.
+ *
+ * The server listens on a Unix domain socket, or on a port bound to the
+ * loopback address. bin/jloxc.c is a client. Each connection carries one
+ * job. All numbers are big-endian:
+ *
+ *   request   u32 MAGIC, u8 'F' or 'S', u32 length, UTF-8 bytes
+ *             'F' names a script by absolute path; 'S' is the source itself
+ *   response  any number of frames: u8 1 (stdout) or 2 (stderr), u32 length, bytes
+ *             then u8 0 and u32 exit status: 0, 65 (compile error),
+ *             70 (runtime error) or 66 (unreadable script)
+ *
+ * The limits given to the server (--max-steps, --timeout, --max-memory)
+ * apply to each job. A job whose client disconnects is cancelled, whether
+ * or not it writes anything: clients send nothing after the request, so
+ * while the job runs another thread waits for the end of the stream and
+ * cancels the job when it comes. Imports aren't supported, since modules
+ * are loaded through the command line's global state.
+ */
+class ScriptServer {
+    static final int MAGIC = 0x4a4c5831; // "JLX1"
+    private static final int CACHE_SIZE = 256;
+    private static final int MAX_REQUEST = 64 << 20;
+
+    private static final int STDOUT = 1;
+    private static final int STDERR = 2;
+    private static final int EXIT = 0;
+
+    // Exercises calls, methods, fields, closures, strings and arithmetic
+    private static final String WARMUP =
+        "class Point { init(x, y) { this.x = x; this.y = y; } sum() { return this.x + this.y; } }\n" +
+        "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n" +
+        "fun counter() { var i = 0; fun next() { i = i + 1; return i; } return next; }\n" +
+        "var next = counter();\n" +
+        "var total = 0;\n" +
+        "for (var i = 0; i < 100; i = i + 1) { total = total + Point(i, fib(8)).sum() + next(); }\n" +
+        "var s = \"\";\n" +
+        "while (s != \"xxxxxxxxxx\") s = s + \"x\";\n" +
+        "print total;\n";
+
+    private final SocketAddress address;
+    private final int workers;
+    private final long warmupMillis;
+    private final long maxSteps;
+    private final long timeoutMillis;
+    private final long maxMemory;
+
+    // Least recently used programs are dropped first
+    private final Map<String, Program> programs = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // The interpreter running on each worker, cancelled when its client stops reading
+    private final ThreadLocal<Interpreter> current = new ThreadLocal<>();
+
+    // Wait for clients to disconnect, one thread per running job
+    private final ExecutorService watchers = Executors.newCachedThreadPool(daemonThreads("jlox-watcher-"));
+
+    ScriptServer(SocketAddress address, int workers, long warmupMillis,
+                 long maxSteps, long timeoutMillis, long maxMemory) {
+        this.address = address;
+        this.workers = workers;
+        this.warmupMillis = warmupMillis;
+        this.maxSteps = maxSteps;
+        this.timeoutMillis = timeoutMillis;
+        this.maxMemory = maxMemory;
+    }
+
+    static Path defaultSocket() {
+        return ProgramCache.defaultDirectory().resolve("jlox.sock");
+    }
+
+    /** A port number means localhost TCP; anything else is a socket path. */
+    static SocketAddress address(String spec) {
+        if (spec.matches("\\d+")) return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec));
+        return UnixDomainSocketAddress.of(Paths.get(spec).toAbsolutePath());
+    }
+
+    void serve() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, daemonThreads("jlox-worker-"));
+        warmUp(pool);
+
+        try (ServerSocketChannel server = open()) {
+            System.err.println("jlox: listening on " + address + " with " + workers + " workers");
+            for (;;) {
+                SocketChannel connection = server.accept();
+                pool.execute(() -> handle(connection));
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private ServerSocketChannel open() throws IOException {
+        if (!(address instanceof UnixDomainSocketAddress)) {
+            return ServerSocketChannel.open().bind(address);
+        }
+
+        // A socket file left by a server that didn't shut down cleanly would make bind fail
+        Path path = ((UnixDomainSocketAddress)address).getPath();
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(address);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // Nothing left to do on the way out
+            }
+        }));
+        return server;
+    }
+
+    // Runs the warmup program on every worker at once, so they all start on compiled code
+    private void warmUp(ExecutorService pool) {
+        if (warmupMillis <= 0) return;
+        Program program;
+        try {
+            program = Program.compile(WARMUP);
+        } catch (CompileError e) {
+            throw new IllegalStateException(e);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        for (int i = 0; i < workers; i++) {
+            pool.execute(() -> {
+                while (System.nanoTime() - deadline < 0) {
+                    new Interpreter(discard, discard).execute(program);
+                }
+            });
+        }
+    }
+
+    private void handle(SocketChannel connection) {
+        try (SocketChannel channel = connection) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            if (in.readInt() != MAGIC) return;
+            int kind = in.readUnsignedByte();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_REQUEST) return;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            Interpreter interpreter = new Interpreter(
+                new PrintStream(new FrameStream(out, STDOUT, this), true, StandardCharsets.UTF_8),
+                new PrintStream(new FrameStream(out, STDERR, this), true, StandardCharsets.UTF_8));
+            CountDownLatch finished = new CountDownLatch(1);
+            watchers.execute(() -> watch(channel, interpreter, finished));
+
+            int status;
+            try {
+                status = run(kind, new String(payload, StandardCharsets.UTF_8), interpreter, out);
+            } finally {
+                finished.countDown();
+            }
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; the job was cancelled if it was running
+        }
+    }
+
+    // Cancels the job once the client closes its end; closing the channel after the job ends stops the wait
+    private static void watch(SocketChannel channel, Interpreter interpreter, CountDownLatch finished) {
+        try {
+            // Only the end of the stream counts; a client has no reason to send more, but that isn't a disconnect
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            while (channel.read(buffer) >= 0) buffer.clear();
+        } catch (IOException e) {
+            // Reset by the client, or closed by handle() after the job
+        }
+
+        try {
+            // The job may still be compiling, with no run to cancel yet, so keep at it until it ends
+            do {
+                interpreter.cancel();
+            } while (!finished.await(10, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int run(int kind, String text, Interpreter interpreter, DataOutputStream connection) {
+        PrintStream err = new PrintStream(new FrameStream(connection, STDERR, this), true, StandardCharsets.UTF_8);
+
+        String source = text;
+        if (kind == 'F') {
+            try {
+                source = new String(Files.readAllBytes(Paths.get(text)), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                err.println("Could not read script '" + text + "'.");
+                return 66;
+            }
+        }
+
+        Program program;
+        try {
+            program = compile(source);
+        } catch (CompileError e) {
+            err.println(e.getMessage());
+            return 65;
+        }
+        if (!program.warnings().isEmpty()) err.print(program.warnings());
+
+        interpreter.limit(maxSteps, timeoutMillis, maxMemory);
+        current.set(interpreter);
+        try {
+            return interpreter.execute(program) ? 0 : 70;
+        } finally {
+            current.remove();
+        }
+    }
+
+    private Program compile(String source) throws CompileError {
+        synchronized (programs) {
+            Program program = programs.get(source);
+            if (program != null) return program;
+        }
+
+        // Compiled outside the lock; two workers may compile the same script, and either result will do
+        Program program = Program.compile(source);
+        synchronized (programs) {
+            programs.put(source, program);
+        }
+        return program;
+    }
+
+    /** Sends everything written between flushes as one frame. */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream connection;
+        private final int stream;
+        private final ScriptServer server;
+        private byte[] buffer = new byte[256];
+        private int size = 0;
+
+        FrameStream(DataOutputStream connection, int stream, ScriptServer server) {
+            this.connection = connection;
+            this.stream = stream;
+            this.server = server;
+        }
+
+        @Override
+        public void write(int b) {
+            if (size == buffer.length) buffer = Arrays.copyOf(buffer, size * 2);
+            buffer[size++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size == 0) return;
+            try {
+                synchronized (connection) {
+                    connection.writeByte(stream);
+                    connection.writeInt(size);
+                    connection.write(buffer, 0, size);
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                Interpreter interpreter = server.current.get();
+                if (interpreter != null) interpreter.cancel();
+                throw e;
+            } finally {
+                size = 0;
+            }
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package jlox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Stmt {
+abstract class Stmt implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// Set by the parser when collecting --coverage, null otherwise
+	transient Coverage.Probe probe;
+
 	interface Visitor<R> {
 		R visit(Block stmt);
 		R visit(Class stmt);
@@ -10,6 +16,7 @@ abstract class Stmt {
 		R visit(Expression stmt);
 		R visit(Function stmt);
 		R visit(If stmt);
+		R visit(Import stmt);
 		R visit(Print stmt);
 		R visit(Return stmt);
 		R visit(Var stmt);
@@ -17,6 +24,8 @@ abstract class Stmt {
 	}
 
 	static class Block extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final List<Stmt> statements;
 
 		Block(List<Stmt> statements) {
@@ -30,6 +39,8 @@ abstract class Stmt {
 	}
 
 	static class Class extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Token name;
 		final Expr.Var superclass;
 		final List<Stmt.Function> methods;
@@ -49,6 +60,7 @@ abstract class Stmt {
 	}
 
 	static class Break extends Stmt {
+		private static final long serialVersionUID = 1L;
 
 		Break() {
 		}
@@ -60,6 +72,8 @@ abstract class Stmt {
 	}
 
 	static class Expression extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Expr expression;
 
 		Expression(Expr expression) {
@@ -73,6 +87,8 @@ abstract class Stmt {
 	}
 
 	static class Function extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
@@ -90,6 +106,8 @@ abstract class Stmt {
 	}
 
 	static class If extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Expr condition;
 		final Stmt thenBranch;
 		final Stmt elseBranch;
@@ -106,7 +124,26 @@ abstract class Stmt {
 		}
 	}
 
+	static class Import extends Stmt {
+		private static final long serialVersionUID = 1L;
+
+		final Token keyword;
+		final String path;
+
+		Import(Token keyword, String path) {
+			this.keyword = keyword;
+			this.path = path;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visit(this);
+		}
+	}
+
 	static class Print extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Expr expression;
 
 		Print(Expr expression) {
@@ -120,6 +157,8 @@ abstract class Stmt {
 	}
 
 	static class Return extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Token keyword;
 		final Expr value;
 
@@ -135,6 +174,8 @@ abstract class Stmt {
 	}
 
 	static class Var extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		final Token name;
 		final Expr initializer;
 
@@ -150,10 +191,14 @@ abstract class Stmt {
 	}
 
 	static class While extends Stmt {
+		private static final long serialVersionUID = 1L;
+
+		final Token keyword;
 		final Expr condition;
 		final Stmt body;
 
-		While(Expr condition, Stmt body) {
+		While(Token keyword, Expr condition, Stmt body) {
+			this.keyword = keyword;
 			this.condition = condition;
 			this.body = body;
 		}
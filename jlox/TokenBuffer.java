@@ -0,0 +1,92 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact token storage produced by the Scanner.
+ *
+ * Tokens are kept as parallel primitive arrays (type, start offset, length, line)
+ * and referred to by index. Lexemes and literals are sliced from the source text
+ * only when asked for, so punctuation and keywords never allocate.
+ */
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    private byte[] types = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+
+    TokenBuffer(String source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+
+        types[count] = (byte)type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int length(int index) {
+        return lengths[index];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        return source.substring(starts[index], starts[index] + lengths[index]);
+    }
+
+    Object literal(int index) {
+        switch (type(index)) {
+            case NUMBER:
+                return Double.parseDouble(lexeme(index));
+            case STRING:
+                // Trim the surrounding quotes.
+                int start = starts[index];
+                return Scanner.unescape(source.substring(start + 1, start + lengths[index] - 1));
+            default:
+                return null;
+        }
+    }
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+}
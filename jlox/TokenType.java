@@ -17,7 +17,7 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
   
     // Keywords.
-    AND, BREAK, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+    AND, BREAK, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR,
     PRINT, RETURN, STATIC, SUPER, THIS, TRUE, VAR, WHILE,
   
     EOF